@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.backup;
+
+import android.content.ContentResolver;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.lineageos.jelly.history.HistoryFixture;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class BackupImportBenchmark {
+    private static final String TAG = "BackupImportBenchmark";
+    private static final int ENTRIES = 100000;
+    private static final int MIN_ENTRIES_PER_SECOND = 2000;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getContentResolver();
+        HistoryFixture.delete(mResolver);
+    }
+
+    @After
+    public void tearDown() {
+        HistoryFixture.delete(mResolver);
+    }
+
+    @Test
+    public void largeHistoryFileImportsQuickly() throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        ImportBatch batch = new ImportBatch(mResolver, 0);
+        // Buffered like the files BackupTask reads
+        try (Reader in = new BufferedReader(new HistoryFileReader(ENTRIES))) {
+            HtmlBackup.read(in, batch);
+        }
+        batch.flush();
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        long rate = ENTRIES * 1000L / Math.max(1, elapsed);
+        Log.i(TAG, "Imported " + batch.getImported() + " entries in " + elapsed + " ms, " +
+                rate + " entries/s");
+
+        assertEquals(ENTRIES, batch.getImported());
+        assertTrue("Imported " + rate + " entries/s", rate >= MIN_ENTRIES_PER_SECOND);
+    }
+
+    /**
+     * A bookmark file with the given number of history entries, generated
+     * while it is read so that it's never held in memory as a whole.
+     */
+    private static class HistoryFileReader extends Reader {
+        private static final long ADD_DATE = 1600000000L;
+
+        private final int mEntries;
+        private final StringBuilder mChunk = new StringBuilder();
+        private int mNext = -1;
+        private int mPosition;
+
+        HistoryFileReader(int entries) {
+            mEntries = entries;
+        }
+
+        @Override
+        public int read(@NonNull char[] buffer, int offset, int length) {
+            if (mPosition == mChunk.length() && !nextChunk()) {
+                return -1;
+            }
+            int count = Math.min(length, mChunk.length() - mPosition);
+            mChunk.getChars(mPosition, mPosition + count, buffer, offset);
+            mPosition += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private boolean nextChunk() {
+            mChunk.setLength(0);
+            mPosition = 0;
+            if (mNext == -1) {
+                mChunk.append("<!DOCTYPE NETSCAPE-Bookmark-file-1>\n<DL><p>\n")
+                        .append("    <DT><H3 JELLY_HISTORY=\"true\">History</H3>\n")
+                        .append("    <DL><p>\n");
+            } else if (mNext < mEntries) {
+                mChunk.append("        <DT><A HREF=\"")
+                        .append(HistoryFixture.getUrl(mNext))
+                        .append("?a=1&amp;b=2\" ADD_DATE=\"")
+                        .append(ADD_DATE + mNext)
+                        .append("\">")
+                        .append(HistoryFixture.getWord(mNext))
+                        .append(" &amp; ")
+                        .append(HistoryFixture.getWord(mNext / 7))
+                        .append("</A>\n");
+            } else if (mNext == mEntries) {
+                mChunk.append("    </DL><p>\n</DL><p>\n");
+            } else {
+                return false;
+            }
+            mNext++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.backup;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.lineageos.jelly.favorite.FavoriteProvider;
+import org.lineageos.jelly.history.HistoryFixture;
+import org.lineageos.jelly.history.HistoryProvider;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class JsonBackupTest {
+    private static final int ENTRIES = 1000;
+    private static final String FAVORITE_URL = HistoryFixture.URL_PREFIX + "favorite";
+    private static final String FAVORITE_TITLE = "Favorite \"quoted\" \u00e9\u4e2d";
+    private static final int FAVORITE_COLOR = 0xff123456;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getContentResolver();
+        deleteEntries();
+        HistoryFixture.insert(mResolver, ENTRIES);
+        FavoriteProvider.addOrUpdateItem(mResolver, FAVORITE_TITLE, FAVORITE_URL,
+                FAVORITE_COLOR);
+    }
+
+    @After
+    public void tearDown() {
+        deleteEntries();
+    }
+
+    @Test
+    public void exportedEntriesAreReadBack() throws IOException {
+        StringWriter out = new StringWriter();
+        JsonBackup.write(mResolver, out);
+        RecordingBatch batch = new RecordingBatch(mResolver);
+        JsonBackup.read(new StringReader(out.toString()), batch);
+
+        assertEquals(queryHistory(), batch.history);
+        assertEquals(1, batch.favorites.size());
+        assertEquals(FAVORITE_TITLE + " " + FAVORITE_COLOR, batch.favorites.get(FAVORITE_URL));
+    }
+
+    @Test
+    public void importRestoresTheHistory() throws IOException {
+        Map<String, String> history = queryHistory();
+        StringWriter out = new StringWriter();
+        JsonBackup.write(mResolver, out);
+        HistoryFixture.delete(mResolver);
+
+        ImportBatch batch = new ImportBatch(mResolver, 0);
+        JsonBackup.read(new StringReader(out.toString()), batch);
+        batch.flush();
+
+        // The favorite was still there
+        assertEquals(ENTRIES, batch.getImported());
+        assertEquals(history, queryHistory());
+
+        // Importing again changes nothing
+        batch = new ImportBatch(mResolver, 0);
+        JsonBackup.read(new StringReader(out.toString()), batch);
+        batch.flush();
+        assertEquals(0, batch.getImported());
+    }
+
+    private Map<String, String> queryHistory() {
+        Map<String, String> history = new HashMap<>();
+        try (Cursor cursor = mResolver.query(HistoryProvider.Columns.CONTENT_URI,
+                new String[]{HistoryProvider.Columns.URL, HistoryProvider.Columns.TITLE,
+                        HistoryProvider.Columns.TIMESTAMP},
+                HistoryProvider.Columns.URL + " LIKE ?",
+                new String[]{HistoryFixture.URL_PREFIX + "%"}, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                history.put(cursor.getString(0), cursor.getString(1) + " " + cursor.getLong(2));
+            }
+        }
+        assertEquals(ENTRIES, history.size());
+        return history;
+    }
+
+    private void deleteEntries() {
+        HistoryFixture.delete(mResolver);
+        mResolver.delete(FavoriteProvider.Columns.CONTENT_URI,
+                FavoriteProvider.Columns.URL + " = ?", new String[]{FAVORITE_URL});
+    }
+
+    /**
+     * Keeps what was read from the test entries instead of writing it.
+     */
+    private static class RecordingBatch extends ImportBatch {
+        final Map<String, String> history = new HashMap<>();
+        final Map<String, String> favorites = new HashMap<>();
+
+        RecordingBatch(ContentResolver resolver) {
+            super(resolver, 0);
+        }
+
+        @Override
+        void addHistory(String title, String url, long timestamp) {
+            if (url.startsWith(HistoryFixture.URL_PREFIX)) {
+                history.put(url, title + " " + timestamp);
+            }
+        }
+
+        @Override
+        void addFavorite(String title, String url, int color) {
+            if (url.startsWith(HistoryFixture.URL_PREFIX)) {
+                favorites.put(url, title + " " + color);
+            }
+        }
+    }
+}
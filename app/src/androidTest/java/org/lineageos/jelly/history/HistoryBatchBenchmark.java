@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.history;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class HistoryBatchBenchmark {
+    private static final String TAG = "HistoryBatchBenchmark";
+    private static final int ROWS = 10000;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getContentResolver();
+        HistoryFixture.delete(mResolver);
+    }
+
+    @After
+    public void tearDown() {
+        HistoryFixture.delete(mResolver);
+    }
+
+    @Test
+    public void batchedInsertsAreFaster() throws Exception {
+        ContentValues[] rows = getRows(0);
+        long start = SystemClock.elapsedRealtime();
+        for (ContentValues row : rows) {
+            mResolver.insert(HistoryProvider.Columns.CONTENT_URI, row);
+        }
+        long perRow = SystemClock.elapsedRealtime() - start;
+        HistoryFixture.delete(mResolver);
+
+        rows = getRows(ROWS);
+        start = SystemClock.elapsedRealtime();
+        int inserted = mResolver.bulkInsert(HistoryProvider.Columns.CONTENT_URI, rows);
+        long bulk = SystemClock.elapsedRealtime() - start;
+        HistoryFixture.delete(mResolver);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(ROWS);
+        for (ContentValues row : getRows(2 * ROWS)) {
+            operations.add(ContentProviderOperation
+                    .newInsert(HistoryProvider.Columns.CONTENT_URI)
+                    .withValues(row)
+                    .build());
+        }
+        start = SystemClock.elapsedRealtime();
+        int applied = mResolver.applyBatch(HistoryProvider.Columns.AUTHORITY,
+                operations).length;
+        long batch = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, "Inserting " + ROWS + " rows: " + getRate(perRow) + " rows/s one by one, " +
+                getRate(bulk) + " rows/s with bulkInsert, " +
+                getRate(batch) + " rows/s with applyBatch");
+
+        assertEquals(ROWS, inserted);
+        assertEquals(ROWS, applied);
+        assertTrue("bulkInsert took " + bulk + " ms, one by one " + perRow + " ms",
+                bulk < perRow);
+        assertTrue("applyBatch took " + batch + " ms, one by one " + perRow + " ms",
+                batch < perRow);
+    }
+
+    private static ContentValues[] getRows(int first) {
+        long now = System.currentTimeMillis();
+        ContentValues[] rows = new ContentValues[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(HistoryProvider.Columns.TITLE, HistoryFixture.getWord(i));
+            rows[i].put(HistoryProvider.Columns.URL, HistoryFixture.getUrl(first + i));
+            rows[i].put(HistoryProvider.Columns.TIMESTAMP, now - i);
+        }
+        return rows;
+    }
+
+    private static long getRate(long ms) {
+        return ROWS * 1000L / Math.max(1, ms);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.history;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import androidx.annotation.NonNull;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills the history with generated pages for the tests, under a reserved
+ * domain so that they can be told apart from real ones and removed.
+ */
+public final class HistoryFixture {
+    public static final String URL_PREFIX = "https://jelly-test.invalid/";
+
+    private static final String[] SYLLABLES = new String[]{
+            "ka", "lo", "mi", "ne", "ru", "sa", "ti", "vo", "ze", "da", "fe", "gu",
+    };
+    private static final int WORDS_PER_TITLE = 5;
+    private static final int CHUNK_SIZE = 1000;
+    private static final long SPAN_MS = TimeUnit.DAYS.toMillis(365);
+
+    private HistoryFixture() {
+    }
+
+    /**
+     * @return the given word of the generated vocabulary, three syllables long.
+     */
+    @NonNull
+    public static String getWord(int index) {
+        int count = SYLLABLES.length;
+        return SYLLABLES[index % count] + SYLLABLES[index / count % count] +
+                SYLLABLES[index / count / count % count];
+    }
+
+    @NonNull
+    public static String getUrl(int index) {
+        return URL_PREFIX + index;
+    }
+
+    /**
+     * Add pages visited over the last year, with titles made of random words.
+     * The same pages are generated on every run.
+     */
+    public static void insert(@NonNull ContentResolver resolver, int count) {
+        Random random = new Random(count);
+        int vocabulary = SYLLABLES.length * SYLLABLES.length * SYLLABLES.length;
+        long now = System.currentTimeMillis();
+        for (int start = 0; start < count; start += CHUNK_SIZE) {
+            ContentValues[] chunk = new ContentValues[Math.min(CHUNK_SIZE, count - start)];
+            for (int i = 0; i < chunk.length; i++) {
+                StringBuilder title = new StringBuilder();
+                for (int j = 0; j < WORDS_PER_TITLE; j++) {
+                    title.append(j > 0 ? " " : "").append(getWord(random.nextInt(vocabulary)));
+                }
+                chunk[i] = new ContentValues();
+                chunk[i].put(HistoryProvider.Columns.TITLE, title.toString());
+                chunk[i].put(HistoryProvider.Columns.URL, getUrl(start + i));
+                chunk[i].put(HistoryProvider.Columns.TIMESTAMP,
+                        now - (long) (random.nextDouble() * SPAN_MS));
+            }
+            resolver.bulkInsert(HistoryProvider.Columns.CONTENT_URI, chunk);
+        }
+    }
+
+    /**
+     * Remove all the generated pages.
+     */
+    public static void delete(@NonNull ContentResolver resolver) {
+        resolver.delete(HistoryProvider.Columns.CONTENT_URI,
+                HistoryProvider.Columns.URL + " LIKE ?", new String[]{URL_PREFIX + "%"});
+    }
+}
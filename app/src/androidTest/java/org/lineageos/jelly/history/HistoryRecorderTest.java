@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.history;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class HistoryRecorderTest {
+    private static final String URL = "https://jelly-test.invalid/recorder";
+    private static final int TITLE_CHANGES = 20;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private HandlerThread mObserverThread;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mResolver = mContext.getContentResolver();
+        mObserverThread = new HandlerThread("HistoryRecorderTest");
+        mObserverThread.start();
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.delete(HistoryProvider.Columns.CONTENT_URI,
+                HistoryProvider.Columns.URL + " = ?", new String[]{URL});
+        mObserverThread.quit();
+    }
+
+    @Test
+    public void titleChangesAreWrittenOnce() throws Exception {
+        AtomicInteger writes = new AtomicInteger();
+        CountDownLatch written = new CountDownLatch(1);
+        // The provider notifies once per batch it applies
+        ContentObserver observer = new ContentObserver(
+                new Handler(mObserverThread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                writes.incrementAndGet();
+                written.countDown();
+            }
+        };
+        mResolver.registerContentObserver(HistoryProvider.Columns.CONTENT_URI, true, observer);
+        try {
+            HistoryRecorder recorder = HistoryRecorder.getInstance(mContext);
+            recorder.recordVisit(URL);
+            for (int i = 0; i < TITLE_CHANGES; i++) {
+                recorder.record(URL, "Title " + i);
+            }
+            recorder.flush();
+
+            assertTrue(written.await(5, TimeUnit.SECONDS));
+            // Leave the time for any other write to show up
+            Thread.sleep(500);
+            assertEquals(1, writes.get());
+        } finally {
+            mResolver.unregisterContentObserver(observer);
+        }
+
+        try (Cursor cursor = mResolver.query(HistoryProvider.Columns.CONTENT_URI,
+                new String[]{HistoryProvider.Columns.TITLE, HistoryProvider.Columns.VISIT_COUNT},
+                HistoryProvider.Columns.URL + " = ?", new String[]{URL}, null)) {
+            assertTrue(cursor != null && cursor.moveToFirst());
+            assertEquals("Title " + (TITLE_CHANGES - 1), cursor.getString(0));
+            assertEquals(1, cursor.getInt(1));
+            assertEquals(1, cursor.getCount());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.history;
+
+import android.content.ContentResolver;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.lineageos.jelly.R;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class HistoryScrollBenchmark {
+    private static final String TAG = "HistoryScrollBenchmark";
+    private static final int ENTRIES = 10000;
+    private static final int FRAMES = 600;
+    // Enough to go through more pages than the adapter keeps around
+    private static final float SCROLL_DP_PER_FRAME = 96;
+    private static final long LOAD_TIMEOUT_MS = 10000;
+
+    private static ContentResolver sResolver;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sResolver = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getContentResolver();
+        HistoryFixture.delete(sResolver);
+        HistoryFixture.insert(sResolver, ENTRIES);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        HistoryFixture.delete(sResolver);
+    }
+
+    @Test
+    public void scrollingKeepsUpWithTheDisplay() throws Exception {
+        try (ActivityScenario<HistoryActivity> scenario =
+                     ActivityScenario.launch(HistoryActivity.class)) {
+            waitForItems(scenario);
+
+            long[] intervals = new long[FRAMES - 1];
+            float[] refreshRate = new float[1];
+            CountDownLatch done = new CountDownLatch(1);
+            scenario.onActivity(activity -> {
+                RecyclerView list = activity.findViewById(R.id.history_list);
+                int step = Math.round(SCROLL_DP_PER_FRAME *
+                        activity.getResources().getDisplayMetrics().density);
+                refreshRate[0] = activity.getWindowManager().getDefaultDisplay()
+                        .getRefreshRate();
+                Choreographer.getInstance().postFrameCallback(
+                        new Choreographer.FrameCallback() {
+                            private int mFrame;
+                            private long mLastFrameNanos;
+
+                            @Override
+                            public void doFrame(long frameTimeNanos) {
+                                if (mFrame > 0) {
+                                    intervals[mFrame - 1] = frameTimeNanos - mLastFrameNanos;
+                                }
+                                mLastFrameNanos = frameTimeNanos;
+                                if (++mFrame == FRAMES) {
+                                    done.countDown();
+                                    return;
+                                }
+                                list.scrollBy(0, step);
+                                Choreographer.getInstance().postFrameCallback(this);
+                            }
+                        });
+            });
+            assertTrue(done.await(FRAMES, TimeUnit.SECONDS));
+
+            Arrays.sort(intervals);
+            long frameNanos = (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate[0]);
+            long p50 = intervals[intervals.length / 2];
+            long p90 = intervals[intervals.length * 9 / 10];
+            long p99 = intervals[intervals.length * 99 / 100];
+            int missed = 0;
+            for (long interval : intervals) {
+                if (interval > frameNanos * 3 / 2) {
+                    missed++;
+                }
+            }
+            Log.i(TAG, "Frame interval over " + intervals.length + " frames: p50 " +
+                    toMillis(p50) + " ms, p90 " + toMillis(p90) + " ms, p99 " +
+                    toMillis(p99) + " ms, " + missed + " late, display " +
+                    toMillis(frameNanos) + " ms");
+
+            // Most frames must make it in time, an occasional page load may not
+            assertTrue("p90 frame interval " + toMillis(p90) + " ms",
+                    p90 <= frameNanos * 3 / 2);
+        }
+    }
+
+    private static void waitForItems(ActivityScenario<HistoryActivity> scenario)
+            throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + LOAD_TIMEOUT_MS;
+        AtomicInteger count = new AtomicInteger();
+        while (SystemClock.elapsedRealtime() < deadline) {
+            scenario.onActivity(activity -> {
+                RecyclerView list = activity.findViewById(R.id.history_list);
+                count.set(list.getChildCount());
+            });
+            if (count.get() > 0) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError("The history wasn't shown in time");
+    }
+
+    private static String toMillis(long nanos) {
+        return String.valueOf(nanos / 100000 / 10f);
+    }
+}
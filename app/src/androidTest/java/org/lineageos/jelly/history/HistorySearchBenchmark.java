@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.history;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class HistorySearchBenchmark {
+    private static final String TAG = "HistorySearchBenchmark";
+    private static final int ENTRIES = 100000;
+    private static final int LIMIT = 200;
+    private static final int RUNS = 5;
+    // Searches run off the UI thread: the bound is what typing still feels
+    // instant with, a frame is the target
+    private static final long BUDGET_MS = 100;
+
+    private static ContentResolver sResolver;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sResolver = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getContentResolver();
+        HistoryFixture.delete(sResolver);
+        HistoryFixture.insert(sResolver, ENTRIES);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        HistoryFixture.delete(sResolver);
+    }
+
+    @Test
+    public void singleLetter() {
+        measure(HistoryFixture.getWord(0).substring(0, 1));
+    }
+
+    @Test
+    public void wordPrefix() {
+        measure(HistoryFixture.getWord(0).substring(0, 3));
+    }
+
+    @Test
+    public void wholeWord() {
+        measure(HistoryFixture.getWord(0));
+    }
+
+    @Test
+    public void twoWords() {
+        measure(HistoryFixture.getWord(0) + " " + HistoryFixture.getWord(1).substring(0, 2));
+    }
+
+    @Test
+    public void matchingEveryEntry() {
+        measure("jelly");
+    }
+
+    private static void measure(String query) {
+        Uri uri = HistoryProvider.Columns.SEARCH_URI.buildUpon()
+                .appendQueryParameter(HistoryProvider.Columns.QUERY_PARAMETER_SEARCH, query)
+                .appendQueryParameter(HistoryProvider.Columns.QUERY_PARAMETER_LIMIT,
+                        String.valueOf(LIMIT))
+                .build();
+        String[] projection = new String[]{
+                HistoryProvider.Columns._ID,
+                HistoryProvider.Columns.TITLE,
+                HistoryProvider.Columns.URL,
+                HistoryProvider.Columns.TIMESTAMP,
+        };
+
+        long[] times = new long[RUNS];
+        int rows = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = SystemClock.elapsedRealtime();
+            try (Cursor cursor = sResolver.query(uri, projection, null, null, null)) {
+                // The query only runs when the rows are read
+                rows = 0;
+                while (cursor != null && cursor.moveToNext()) {
+                    cursor.getString(1);
+                    cursor.getString(2);
+                    rows++;
+                }
+            }
+            times[i] = SystemClock.elapsedRealtime() - start;
+        }
+        Arrays.sort(times);
+        long median = times[RUNS / 2];
+        Log.i(TAG, "\"" + query + "\": " + rows + " rows, median " + median + " ms, " +
+                "runs " + Arrays.toString(times));
+
+        assertTrue(rows > 0);
+        assertTrue("\"" + query + "\" took " + median + " ms", median <= BUDGET_MS);
+    }
+}
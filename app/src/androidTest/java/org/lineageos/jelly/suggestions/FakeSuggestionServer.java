@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local stand-in for a search suggestions service. It answers every
+ * query in the OpenSearch format after a configurable delay, and keeps
+ * track of the queries it was asked for.
+ */
+class FakeSuggestionServer implements AutoCloseable {
+    private final ServerSocket mSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final List<String> mRequested = new CopyOnWriteArrayList<>();
+    private volatile long mDelayMs;
+
+    FakeSuggestionServer(long delayMs) throws IOException {
+        mDelayMs = delayMs;
+        mSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(this::accept);
+    }
+
+    void setDelay(long delayMs) {
+        mDelayMs = delayMs;
+    }
+
+    /**
+     * @return a provider fetching its suggestions from this server.
+     */
+    @NonNull
+    SuggestionProvider createProvider() {
+        String base = "http://127.0.0.1:" + mSocket.getLocalPort() + "/complete?q=";
+        return new SuggestionProvider("UTF-8") {
+            @NonNull
+            @Override
+            protected String createQueryUrl(@NonNull String query, @NonNull String language) {
+                return base + query;
+            }
+        };
+    }
+
+    /**
+     * @return the queries received so far, in order.
+     */
+    @NonNull
+    List<String> getRequested() {
+        return mRequested;
+    }
+
+    /**
+     * @return the suggestions answered for a query.
+     */
+    @NonNull
+    static String[] getSuggestions(@NonNull String query) {
+        return new String[]{query + " one", query + " two"};
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+        mExecutor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!mSocket.isClosed()) {
+            try {
+                Socket client = mSocket.accept();
+                mExecutor.execute(() -> serve(client));
+            } catch (IOException e) {
+                // Closed
+                return;
+            }
+        }
+    }
+
+    private void serve(@NonNull Socket client) {
+        try (Socket socket = client) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.UTF_8));
+            // GET /complete?q=... HTTP/1.1
+            String requestLine = in.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            String line;
+            do {
+                line = in.readLine();
+            } while (line != null && !line.isEmpty());
+
+            String target = requestLine.split(" ")[1];
+            String query = URLDecoder.decode(
+                    target.substring(target.indexOf("q=") + 2), "UTF-8");
+            mRequested.add(query);
+
+            Thread.sleep(mDelayMs);
+
+            StringBuilder body = new StringBuilder("[\"").append(query).append("\",[");
+            String[] suggestions = getSuggestions(query);
+            for (int i = 0; i < suggestions.length; i++) {
+                body.append(i > 0 ? "," : "").append('"').append(suggestions[i]).append('"');
+            }
+            body.append("]]");
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+
+            OutputStream out = socket.getOutputStream();
+            out.write(("HTTP/1.1 200 OK\r\n" +
+                    "Content-Type: application/json; charset=UTF-8\r\n" +
+                    "Content-Length: " + bytes.length + "\r\n" +
+                    "Connection: close\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.write(bytes);
+            out.flush();
+        } catch (IOException | InterruptedException e) {
+            // The client went away, e.g. because the request was cancelled
+        }
+    }
+}
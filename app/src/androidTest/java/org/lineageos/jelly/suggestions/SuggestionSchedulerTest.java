@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SuggestionSchedulerTest {
+    private static final long SLOW_MS = 2000;
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private FakeSuggestionServer mServer;
+    private FakeSuggestionServer mFallbackServer;
+    private SuggestionProvider mProvider;
+    private SuggestionProvider mFallback;
+    private SuggestionScheduler mScheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FakeSuggestionServer(0);
+        mFallbackServer = new FakeSuggestionServer(0);
+        mProvider = mServer.createProvider();
+        mFallback = mFallbackServer.createProvider();
+        mScheduler = new SuggestionScheduler();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.close();
+        mFallbackServer.close();
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void latestQueryIsServed() {
+        mScheduler.onQueryChanged();
+        SuggestionScheduler.Answer answer = mScheduler.fetch(mScheduler.getGeneration(),
+                mProvider, null, false, "jelly");
+
+        assertNotNull(answer);
+        assertEquals(Arrays.asList(FakeSuggestionServer.getSuggestions("jelly")),
+                answer.results);
+        assertEquals(mProvider, answer.provider);
+    }
+
+    @Test
+    public void keystrokesWithinTheDebounceAreNeverSent() throws Exception {
+        Future<SuggestionScheduler.Answer> first = fetchInBackground("j");
+        Future<SuggestionScheduler.Answer> second = fetchInBackground("je");
+        SuggestionScheduler.Answer last = fetchInBackground("jel").get(5, TimeUnit.SECONDS);
+
+        assertNull(first.get(5, TimeUnit.SECONDS));
+        assertNull(second.get(5, TimeUnit.SECONDS));
+        assertNotNull(last);
+        assertEquals(Collections.singletonList("jel"), mServer.getRequested());
+    }
+
+    @Test
+    public void staleResponseIsDroppedAndItsConnectionAborted() throws Exception {
+        mServer.setDelay(SLOW_MS);
+        long start = SystemClock.elapsedRealtime();
+        Future<SuggestionScheduler.Answer> stale = fetchInBackground("jel");
+        // Past the debounce, the request is waiting for the server
+        waitForRequests(1);
+
+        mServer.setDelay(0);
+        SuggestionScheduler.Answer latest = fetchInBackground("jelly").get(5, TimeUnit.SECONDS);
+
+        assertNull(stale.get(5, TimeUnit.SECONDS));
+        // It didn't wait for the slow answer, the connection was closed under it
+        assertTrue(SystemClock.elapsedRealtime() - start < SLOW_MS);
+        assertNotNull(latest);
+        assertEquals(Arrays.asList(FakeSuggestionServer.getSuggestions("jelly")),
+                latest.results);
+    }
+
+    @Test
+    public void fastPrimaryIsNotHedged() {
+        mScheduler.onQueryChanged();
+        SuggestionScheduler.Answer answer = mScheduler.fetch(mScheduler.getGeneration(),
+                mProvider, mFallback, false, "jelly");
+
+        assertNotNull(answer);
+        assertEquals(mProvider, answer.provider);
+        assertTrue(mFallbackServer.getRequested().isEmpty());
+    }
+
+    @Test
+    public void slowPrimaryIsHedgedToTheFallback() {
+        mServer.setDelay(SLOW_MS);
+        long start = SystemClock.elapsedRealtime();
+        mScheduler.onQueryChanged();
+        SuggestionScheduler.Answer answer = mScheduler.fetch(mScheduler.getGeneration(),
+                mProvider, mFallback, false, "jelly");
+
+        assertNotNull(answer);
+        assertEquals(mFallback, answer.provider);
+        assertEquals(Arrays.asList(FakeSuggestionServer.getSuggestions("jelly")),
+                answer.results);
+        // The loser was cancelled rather than waited for
+        assertTrue(SystemClock.elapsedRealtime() - start < SLOW_MS);
+        // It took at least the hedge budget, the estimate learnt from it
+        assertTrue(mProvider.getLatency().getHedgeBudget() > 400);
+    }
+
+    @Test
+    public void mergeModeCombinesBothAnswers() {
+        // The primary misses the initial hedge budget of 400ms and answers at
+        // 600ms, then the fallback gets up to its own initial budget to answer
+        mServer.setDelay(600);
+        mFallbackServer.setDelay(300);
+        mScheduler.onQueryChanged();
+        SuggestionScheduler.Answer answer = mScheduler.fetch(mScheduler.getGeneration(),
+                mProvider, mFallback, true, "jelly");
+
+        assertNotNull(answer);
+        // Neither provider made this answer, it can't be cached under either
+        assertNull(answer.provider);
+        // Both answered the same suggestions, they are only kept once
+        assertEquals(Arrays.asList(FakeSuggestionServer.getSuggestions("jelly")),
+                answer.results);
+        assertEquals(Collections.singletonList("jelly"), mServer.getRequested());
+        assertEquals(Collections.singletonList("jelly"), mFallbackServer.getRequested());
+    }
+
+    /**
+     * Type a query: supersede the previous ones, then fetch on another thread.
+     */
+    private Future<SuggestionScheduler.Answer> fetchInBackground(String query) {
+        mScheduler.onQueryChanged();
+        long generation = mScheduler.getGeneration();
+        return mExecutor.submit(() -> mScheduler.fetch(generation, mProvider, null, false,
+                query));
+    }
+
+    private void waitForRequests(int count) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + 5000;
+        while (mServer.getRequested().size() < count) {
+            assertTrue("No request reached the server",
+                    SystemClock.elapsedRealtime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
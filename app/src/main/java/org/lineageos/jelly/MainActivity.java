@@ -39,7 +39,6 @@ import android.graphics.PorterDuff;
 import androidx.core.graphics.drawable.IconCompat;
 import android.graphics.drawable.TransitionDrawable;
 import android.net.Uri;
-import android.net.http.HttpResponseCache;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
@@ -98,6 +97,9 @@ import com.google.android.material.snackbar.Snackbar;
 import org.lineageos.jelly.favorite.FavoriteActivity;
 import org.lineageos.jelly.favorite.FavoriteProvider;
 import org.lineageos.jelly.history.HistoryActivity;
+import org.lineageos.jelly.history.HistoryMaintenance;
+import org.lineageos.jelly.history.HistoryRecorder;
+import org.lineageos.jelly.suggestions.SuggestionMetrics;
 import org.lineageos.jelly.suggestions.SuggestionsAdapter;
 import org.lineageos.jelly.ui.SearchBarController;
 import org.lineageos.jelly.ui.UrlBarController;
@@ -109,8 +111,10 @@ import org.lineageos.jelly.webview.WebViewExt;
 import org.lineageos.jelly.webview.WebViewExtActivity;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 
 public class MainActivity extends WebViewExtActivity implements
@@ -183,7 +187,6 @@ public class MainActivity extends WebViewExtActivity implements
         mLoadingProgress = findViewById(R.id.load_progress);
         mToolbarSearchBar = findViewById(R.id.toolbar_search_bar);
         AutoCompleteTextView autoCompleteTextView = findViewById(R.id.url_bar);
-        autoCompleteTextView.setAdapter(new SuggestionsAdapter(this));
         autoCompleteTextView.setOnEditorActionListener((v, actionId, event) -> {
             if (actionId == EditorInfo.IME_ACTION_SEARCH) {
                 UiUtils.hideKeyboard(autoCompleteTextView);
@@ -229,6 +232,8 @@ public class MainActivity extends WebViewExtActivity implements
             mThemeColor = savedInstanceState.getInt(STATE_KEY_THEME_COLOR, 0);
         }
 
+        autoCompleteTextView.setAdapter(new SuggestionsAdapter(this, mIncognito));
+
         if (mIncognito && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) ) {
             autoCompleteTextView.setImeOptions(autoCompleteTextView.getImeOptions() |
                     EditorInfo.IME_FLAG_NO_PERSONALIZED_LEARNING);
@@ -245,7 +250,7 @@ public class MainActivity extends WebViewExtActivity implements
         setupMenu();
 
         UrlBarController urlBarController = new UrlBarController(autoCompleteTextView,
-                findViewById(R.id.secure));
+                findViewById(R.id.secure), mIncognito);
 
         mWebView = findViewById(R.id.web_view);
         mWebView.init(this, urlBarController, mLoadingProgress, mIncognito);
@@ -261,14 +266,6 @@ public class MainActivity extends WebViewExtActivity implements
                 this);
 
         setUiMode();
-
-        try {
-            File httpCacheDir = new File(getCacheDir(), "suggestion_responses");
-            long httpCacheSize = 1024 * 1024; // 1 MiB
-            HttpResponseCache.install(httpCacheDir, httpCacheSize);
-        } catch (IOException e) {
-            Log.i(TAG, "HTTP response cache installation failed:" + e);
-        }
     }
 
     @Override
@@ -285,10 +282,20 @@ public class MainActivity extends WebViewExtActivity implements
             CookieSyncManager.getInstance().sync();
         }
         unregisterReceiver(mUrlResolvedReceiver);
-        HttpResponseCache.getInstalled().flush();
+        HistoryRecorder.getInstance(this).flush();
+        HistoryMaintenance.runIfDue(this);
+        Context context = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() ->
+                SuggestionMetrics.getInstance().save(context));
         super.onStop();
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        SuggestionMetrics.getInstance().dump(this, writer);
+    }
+
     @Override
     public void onPause() {
         mWebView.onPause();
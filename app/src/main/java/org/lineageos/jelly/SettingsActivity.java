@@ -17,6 +17,7 @@ package org.lineageos.jelly;
 
 import android.content.Context;
 import android.graphics.Color;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -26,6 +27,8 @@ import android.webkit.CookieSyncManager;
 import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.Toast;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
@@ -34,6 +37,7 @@ import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.PreferenceManager;
 import androidx.preference.SwitchPreferenceCompat;
+import org.lineageos.jelly.backup.BackupTask;
 import org.lineageos.jelly.utils.PrefsUtils;
 
 public class SettingsActivity extends AppCompatActivity {
@@ -57,6 +61,18 @@ public class SettingsActivity extends AppCompatActivity {
     }
 
     public static class MyPreferenceFragment extends PreferenceFragmentCompat implements Preference.OnPreferenceChangeListener {
+        private final ActivityResultLauncher<String> mExportJson = registerForActivityResult(
+                new ActivityResultContracts.CreateDocument(BackupTask.Format.JSON.mimeType),
+                uri -> exportTo(uri, BackupTask.Format.JSON));
+        private final ActivityResultLauncher<String> mExportHtml = registerForActivityResult(
+                new ActivityResultContracts.CreateDocument(BackupTask.Format.HTML.mimeType),
+                uri -> exportTo(uri, BackupTask.Format.HTML));
+        private final ActivityResultLauncher<String[]> mImport = registerForActivityResult(
+                new ActivityResultContracts.OpenDocument(), uri -> {
+                    if (uri != null) {
+                        BackupTask.importFrom(requireContext(), uri);
+                    }
+                });
 
         @Override
         public void onCreatePreferences(Bundle savedInstance, String rootKey) {
@@ -107,6 +123,25 @@ public class SettingsActivity extends AppCompatActivity {
             if (key.equals("key_home_page")) {
                 editHomePage(preference);
                 return true;
+            } else if (key.equals("key_export")) {
+                new AlertDialog.Builder(preference.getContext())
+                        .setTitle(R.string.pref_export_title)
+                        .setItems(R.array.backup_formats, (dialog, which) -> {
+                            if (which == 0) {
+                                mExportJson.launch(getString(R.string.backup_json_file_name));
+                            } else {
+                                mExportHtml.launch(getString(R.string.backup_html_file_name));
+                            }
+                        })
+                        .setNegativeButton(android.R.string.cancel, null)
+                        .show();
+                return true;
+            } else if (key.equals("key_import")) {
+                // Some providers don't know the type of a JSON file
+                mImport.launch(new String[]{BackupTask.Format.JSON.mimeType,
+                        BackupTask.Format.HTML.mimeType, "text/plain",
+                        "application/octet-stream"});
+                return true;
             } else if (key.equals("key_cookie_clear")) {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
                     CookieManager.getInstance().removeAllCookies(null);
@@ -127,6 +162,12 @@ public class SettingsActivity extends AppCompatActivity {
             }
         }
 
+        private void exportTo(Uri uri, BackupTask.Format format) {
+            if (uri != null) {
+                BackupTask.exportTo(requireContext(), uri, format);
+            }
+        }
+
         private void editHomePage(Preference preference) {
             Context context = preference.getContext();
             AlertDialog.Builder builder = new AlertDialog.Builder(context);
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.jelly.backup;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+import org.lineageos.jelly.R;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Exports the favorites and the history to a document, or imports them
+ * from one, in the background.
+ */
+public class BackupTask extends AsyncTask<Void, Void, Integer> {
+    private static final String TAG = "BackupTask";
+    // Far enough to get past blank lines
+    private static final int SNIFF_LENGTH = 1024;
+
+    public enum Format {
+        JSON("application/json"),
+        HTML("text/html");
+
+        public final String mimeType;
+
+        Format(String mimeType) {
+            this.mimeType = mimeType;
+        }
+    }
+
+    private final Context mContext;
+    private final Uri mUri;
+    // Null when importing, the format is found from the content
+    private final Format mFormat;
+
+    private BackupTask(@NonNull Context context, @NonNull Uri uri, @Nullable Format format) {
+        mContext = context.getApplicationContext();
+        mUri = uri;
+        mFormat = format;
+    }
+
+    public static void exportTo(@NonNull Context context, @NonNull Uri uri,
+                                @NonNull Format format) {
+        new BackupTask(context, uri, format).executeOnExecutor(THREAD_POOL_EXECUTOR);
+    }
+
+    public static void importFrom(@NonNull Context context, @NonNull Uri uri) {
+        new BackupTask(context, uri, null).executeOnExecutor(THREAD_POOL_EXECUTOR);
+    }
+
+    @Override
+    protected Integer doInBackground(Void... voids) {
+        long start = SystemClock.elapsedRealtime();
+        int count;
+        try {
+            count = mFormat != null ? export() : read();
+        } catch (IOException | IllegalStateException | NumberFormatException |
+                SecurityException | SQLiteException e) {
+            // Also a grant of the document revoked meanwhile, or a full disk
+            Log.e(TAG, "Unable to " + (mFormat != null ? "export to " : "import from ") +
+                    mUri, e);
+            return null;
+        }
+        Log.d(TAG, (mFormat != null ? "Exported " : "Imported ") + count + " entries in " +
+                (SystemClock.elapsedRealtime() - start) + "ms");
+        return count;
+    }
+
+    @Override
+    protected void onPostExecute(Integer count) {
+        String message = count == null ? mContext.getString(R.string.backup_failed)
+                : mContext.getString(mFormat != null
+                ? R.string.backup_export_done : R.string.backup_import_done, count);
+        Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+    }
+
+    private int export() throws IOException {
+        ContentResolver resolver = mContext.getContentResolver();
+        OutputStream out = resolver.openOutputStream(mUri, "w");
+        if (out == null) {
+            throw new FileNotFoundException("Unable to open " + mUri);
+        }
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            return mFormat == Format.JSON
+                    ? JsonBackup.write(resolver, writer)
+                    : HtmlBackup.write(resolver, writer,
+                    mContext.getString(R.string.history_title));
+        }
+    }
+
+    private int read() throws IOException {
+        ContentResolver resolver = mContext.getContentResolver();
+        InputStream in = resolver.openInputStream(mUri);
+        if (in == null) {
+            throw new FileNotFoundException("Unable to open " + mUri);
+        }
+        ImportBatch batch = new ImportBatch(resolver,
+                ContextCompat.getColor(mContext, R.color.colorAccent));
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            if (isJson(reader)) {
+                JsonBackup.read(reader, batch);
+            } else {
+                HtmlBackup.read(reader, batch);
+            }
+        } finally {
+            // Whatever was read before an error is kept
+            batch.flush();
+        }
+        return batch.getImported();
+    }
+
+    /**
+     * Look at the first characters to tell the formats apart, whatever the
+     * name or the type of the document. A byte order mark is skipped, the
+     * parsers don't expect it.
+     */
+    private static boolean isJson(@NonNull Reader reader) throws IOException {
+        reader.mark(1);
+        if (reader.read() != '\uFEFF') {
+            reader.reset();
+        }
+        reader.mark(SNIFF_LENGTH);
+        try {
+            for (int i = 0; i < SNIFF_LENGTH; i++) {
+                int c = reader.read();
+                if (!Character.isWhitespace(c)) {
+                    return c == '{';
+                }
+            }
+            return false;
+        } finally {
+            reader.reset();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.jelly.backup;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.lineageos.jelly.favorite.FavoriteProvider;
+import org.lineageos.jelly.history.HistoryProvider;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * Reads and writes the Netscape bookmark file format, as exported and
+ * imported by most browsers. The favorites are written at the top level,
+ * the history in a folder of its own that is recognized when importing.
+ * Any other link is imported as a favorite.
+ */
+final class HtmlBackup {
+    // Unknown attributes are ignored by other browsers
+    private static final String ATTR_HISTORY = "JELLY_HISTORY";
+    // Longer tags are cut, e.g. those with a favicon embedded after the link
+    private static final int MAX_TAG_LENGTH = 8 * 1024;
+    private static final int MAX_TITLE_LENGTH = 4 * 1024;
+
+    private HtmlBackup() {
+    }
+
+    /**
+     * @param historyTitle the name of the history folder.
+     * @return the number of entries written.
+     */
+    static int write(@NonNull ContentResolver resolver, @NonNull Writer out,
+                     @NonNull String historyTitle) throws IOException {
+        int count = 0;
+        out.write("<!DOCTYPE NETSCAPE-Bookmark-file-1>\n" +
+                "<META HTTP-EQUIV=\"Content-Type\" CONTENT=\"text/html; charset=UTF-8\">\n" +
+                "<TITLE>Bookmarks</TITLE>\n" +
+                "<H1>Bookmarks</H1>\n" +
+                "<DL><p>\n");
+
+        try (Cursor cursor = resolver.query(FavoriteProvider.Columns.CONTENT_URI,
+                new String[]{FavoriteProvider.Columns.TITLE, FavoriteProvider.Columns.URL},
+                null, null, FavoriteProvider.Columns.SORT_ORDER)) {
+            while (cursor != null && cursor.moveToNext()) {
+                writeLink(out, "    ", cursor.getString(0), cursor.getString(1), 0);
+                count++;
+            }
+        }
+
+        out.write("    <DT><H3 " + ATTR_HISTORY + "=\"true\">");
+        out.write(TextUtils.htmlEncode(historyTitle));
+        out.write("</H3>\n    <DL><p>\n");
+        try (Cursor cursor = resolver.query(HistoryProvider.Columns.CONTENT_URI,
+                new String[]{HistoryProvider.Columns.TITLE, HistoryProvider.Columns.URL,
+                        HistoryProvider.Columns.TIMESTAMP}, null, null, BaseColumns._ID)) {
+            while (cursor != null && cursor.moveToNext()) {
+                writeLink(out, "        ", cursor.getString(0), cursor.getString(1),
+                        cursor.getLong(2));
+                count++;
+            }
+        }
+        out.write("    </DL><p>\n");
+
+        out.write("</DL><p>\n");
+        out.flush();
+        return count;
+    }
+
+    private static void writeLink(@NonNull Writer out, @NonNull String indent,
+                                  @Nullable String title, @Nullable String url,
+                                  long timestamp) throws IOException {
+        if (url == null) {
+            return;
+        }
+        out.write(indent);
+        out.write("<DT><A HREF=\"");
+        out.write(TextUtils.htmlEncode(url));
+        if (timestamp > 0) {
+            // In seconds
+            out.write("\" ADD_DATE=\"");
+            out.write(String.valueOf(timestamp / 1000));
+        }
+        out.write("\">");
+        out.write(TextUtils.htmlEncode(title != null ? title : url));
+        out.write("</A>\n");
+    }
+
+    /**
+     * Parse the file one tag at a time, only the current one is held in memory.
+     */
+    static void read(@NonNull Reader in, @NonNull ImportBatch batch) throws IOException {
+        // Whether the enclosing folders hold the history, the innermost first
+        Deque<Boolean> folders = new ArrayDeque<>();
+        boolean history = false;
+        boolean historyFolder = false;
+        String href = null;
+        long addDate = 0;
+        StringBuilder tag = new StringBuilder();
+        StringBuilder title = new StringBuilder();
+
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c != '<') {
+                if (href != null && title.length() < MAX_TITLE_LENGTH) {
+                    title.append((char) c);
+                }
+                continue;
+            }
+            readTag(in, tag);
+            String name = getTagName(tag);
+            switch (name) {
+                case "A":
+                    href = getAttribute(tag, "HREF");
+                    addDate = parseLong(getAttribute(tag, "ADD_DATE"));
+                    title.setLength(0);
+                    break;
+                case "/A":
+                    if (href != null) {
+                        String url = unescape(href.trim());
+                        String text = unescape(title.toString().trim());
+                        if (history) {
+                            batch.addHistory(text, url, addDate * 1000);
+                        } else {
+                            batch.addFavorite(text, url);
+                        }
+                        href = null;
+                    }
+                    break;
+                case "H3":
+                    historyFolder = getAttribute(tag, ATTR_HISTORY) != null;
+                    break;
+                case "DL":
+                    folders.push(history);
+                    history |= historyFolder;
+                    historyFolder = false;
+                    break;
+                case "/DL":
+                    history = !folders.isEmpty() && folders.pop();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Read up to the end of the tag, the opening bracket being already read.
+     */
+    private static void readTag(@NonNull Reader in, @NonNull StringBuilder tag)
+            throws IOException {
+        tag.setLength(0);
+        char quote = 0;
+        int c;
+        while ((c = in.read()) != -1) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = (char) c;
+            } else if (c == '>') {
+                return;
+            }
+            if (tag.length() < MAX_TAG_LENGTH) {
+                tag.append((char) c);
+            }
+        }
+    }
+
+    @NonNull
+    private static String getTagName(@NonNull CharSequence tag) {
+        int end = 0;
+        while (end < tag.length() && !Character.isWhitespace(tag.charAt(end))) {
+            end++;
+        }
+        return tag.subSequence(0, end).toString().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the raw value of the attribute, null if the tag doesn't have it.
+     */
+    @Nullable
+    private static String getAttribute(@NonNull CharSequence tag, @NonNull String name) {
+        int i = 0;
+        int length = tag.length();
+        // Skip the tag name
+        while (i < length && !Character.isWhitespace(tag.charAt(i))) {
+            i++;
+        }
+        while (i < length) {
+            while (i < length && Character.isWhitespace(tag.charAt(i))) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < length && tag.charAt(i) != '=' &&
+                    !Character.isWhitespace(tag.charAt(i))) {
+                i++;
+            }
+            String attribute = tag.subSequence(nameStart, i).toString();
+            String value = "";
+            if (i < length && tag.charAt(i) == '=') {
+                i++;
+                char quote = i < length ? tag.charAt(i) : 0;
+                int valueStart;
+                if (quote == '"' || quote == '\'') {
+                    valueStart = ++i;
+                    while (i < length && tag.charAt(i) != quote) {
+                        i++;
+                    }
+                    value = tag.subSequence(valueStart, i).toString();
+                    i++;
+                } else {
+                    valueStart = i;
+                    while (i < length && !Character.isWhitespace(tag.charAt(i))) {
+                        i++;
+                    }
+                    value = tag.subSequence(valueStart, i).toString();
+                }
+            }
+            if (attribute.equalsIgnoreCase(name)) {
+                return value;
+            }
+            if (i == nameStart) {
+                // Not an attribute, e.g. a stray character
+                i++;
+            }
+        }
+        return null;
+    }
+
+    private static long parseLong(@Nullable String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Decode the character references, which TextUtils.htmlEncode() and
+     * other browsers use.
+     */
+    @NonNull
+    private static String unescape(@NonNull String text) {
+        int amp = text.indexOf('&');
+        if (amp < 0) {
+            return text;
+        }
+        StringBuilder builder = new StringBuilder(text.length());
+        int start = 0;
+        while (amp >= 0) {
+            int end = text.indexOf(';', amp);
+            if (end < 0) {
+                break;
+            }
+            String entity = decodeEntity(text.substring(amp + 1, end));
+            if (entity != null) {
+                builder.append(text, start, amp).append(entity);
+                start = end + 1;
+            }
+            amp = text.indexOf('&', entity != null ? start : amp + 1);
+        }
+        builder.append(text, start, text.length());
+        return builder.toString();
+    }
+
+    @Nullable
+    private static String decodeEntity(@NonNull String entity) {
+        switch (entity) {
+            case "amp":
+                return "&";
+            case "lt":
+                return "<";
+            case "gt":
+                return ">";
+            case "quot":
+                return "\"";
+            case "apos":
+                return "'";
+            case "nbsp":
+                return " ";
+        }
+        if (entity.length() < 2 || entity.charAt(0) != '#') {
+            return null;
+        }
+        try {
+            int codePoint = entity.charAt(1) == 'x' || entity.charAt(1) == 'X'
+                    ? Integer.parseInt(entity.substring(2), 16)
+                    : Integer.parseInt(entity.substring(1));
+            return new String(Character.toChars(codePoint));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
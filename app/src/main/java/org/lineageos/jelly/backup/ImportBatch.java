@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.jelly.backup;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.lineageos.jelly.favorite.FavoriteProvider;
+import org.lineageos.jelly.history.HistoryProvider;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects the entries read from a file and writes them a batch at a time,
+ * each batch in a single transaction. Only one batch is ever held in memory,
+ * whatever the size of the file.
+ */
+class ImportBatch {
+    private static final int BATCH_SIZE = 500;
+
+    private final ContentResolver mResolver;
+    private final int mDefaultColor;
+
+    private final String[] mHistoryTitles = new String[BATCH_SIZE];
+    private final String[] mHistoryUrls = new String[BATCH_SIZE];
+    private final long[] mHistoryTimes = new long[BATCH_SIZE];
+    private int mHistoryCount;
+    private final List<ContentValues> mFavorites = new ArrayList<>(BATCH_SIZE);
+    private int mImported;
+
+    ImportBatch(@NonNull ContentResolver resolver, int defaultColor) {
+        mResolver = resolver;
+        mDefaultColor = defaultColor;
+    }
+
+    /**
+     * @param timestamp time of the first visit, 0 if unknown.
+     */
+    void addHistory(@Nullable String title, @Nullable String url, long timestamp) {
+        if (TextUtils.isEmpty(url)) {
+            return;
+        }
+        mHistoryTitles[mHistoryCount] = title;
+        mHistoryUrls[mHistoryCount] = url;
+        mHistoryTimes[mHistoryCount] = timestamp > 0 ? timestamp : System.currentTimeMillis();
+        if (++mHistoryCount == BATCH_SIZE) {
+            flushHistory();
+        }
+    }
+
+    void addFavorite(@Nullable String title, @Nullable String url) {
+        addFavorite(title, url, mDefaultColor);
+    }
+
+    void addFavorite(@Nullable String title, @Nullable String url, int color) {
+        if (TextUtils.isEmpty(url)) {
+            return;
+        }
+        ContentValues values = new ContentValues(3);
+        values.put(FavoriteProvider.Columns.TITLE, title);
+        values.put(FavoriteProvider.Columns.URL, url);
+        values.put(FavoriteProvider.Columns.COLOR, color);
+        mFavorites.add(values);
+        if (mFavorites.size() == BATCH_SIZE) {
+            flushFavorites();
+        }
+    }
+
+    /**
+     * Write what is left, once the whole file is read.
+     */
+    void flush() {
+        flushHistory();
+        flushFavorites();
+    }
+
+    int getImported() {
+        return mImported;
+    }
+
+    private void flushHistory() {
+        if (mHistoryCount == 0) {
+            return;
+        }
+        String[] titles = new String[mHistoryCount];
+        String[] urls = new String[mHistoryCount];
+        int[] visitCounts = new int[mHistoryCount];
+        long[] visitTimes = new long[mHistoryCount];
+        System.arraycopy(mHistoryUrls, 0, urls, 0, mHistoryCount);
+        // Entries already in the history are left as they are, so that
+        // importing the same file twice doesn't add visits
+        Set<String> known = queryExistingHistory(urls);
+        int visits = 0;
+        for (int i = 0; i < mHistoryCount; i++) {
+            if (known.add(urls[i])) {
+                titles[i] = mHistoryTitles[i];
+                visitCounts[i] = 1;
+                visitTimes[visits++] = mHistoryTimes[i];
+                mImported++;
+            }
+        }
+        HistoryProvider.addOrUpdateItems(mResolver, titles, urls, visitCounts, visitTimes);
+        mHistoryCount = 0;
+    }
+
+    @NonNull
+    private Set<String> queryExistingHistory(@NonNull String[] urls) {
+        StringBuilder selection = new StringBuilder(HistoryProvider.Columns.URL + " IN (");
+        for (int i = 0; i < urls.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+
+        // Found on the url index
+        Set<String> existing = new HashSet<>();
+        try (Cursor cursor = mResolver.query(HistoryProvider.Columns.CONTENT_URI,
+                new String[]{HistoryProvider.Columns.URL}, selection.toString(), urls, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                existing.add(cursor.getString(0));
+            }
+        }
+        return existing;
+    }
+
+    private void flushFavorites() {
+        if (mFavorites.isEmpty()) {
+            return;
+        }
+        // Those already there, or earlier in this batch, are ignored by the provider
+        mImported += mResolver.bulkInsert(FavoriteProvider.Columns.CONTENT_URI,
+                mFavorites.toArray(new ContentValues[0]));
+        mFavorites.clear();
+    }
+}
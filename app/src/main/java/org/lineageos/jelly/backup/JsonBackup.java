@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.jelly.backup;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import androidx.annotation.NonNull;
+
+import org.lineageos.jelly.favorite.FavoriteProvider;
+import org.lineageos.jelly.history.HistoryProvider;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Reads and writes the favorites and the history as a JSON document:
+ * <pre>
+ * {"version": 1,
+ *  "favorites": [{"title": ..., "url": ..., "color": ...}, ...],
+ *  "history": [{"title": ..., "url": ..., "timestamp": ...}, ...]}
+ * </pre>
+ * Both ways are streamed, one entry at a time.
+ */
+final class JsonBackup {
+    private static final int VERSION = 1;
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_FAVORITES = "favorites";
+    private static final String KEY_HISTORY = "history";
+    private static final String KEY_TITLE = "title";
+    private static final String KEY_URL = "url";
+    private static final String KEY_COLOR = "color";
+    private static final String KEY_TIMESTAMP = "timestamp";
+
+    private JsonBackup() {
+    }
+
+    /**
+     * @return the number of entries written.
+     */
+    static int write(@NonNull ContentResolver resolver, @NonNull Writer out)
+            throws IOException {
+        int count = 0;
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+        writer.name(KEY_VERSION).value(VERSION);
+
+        writer.name(KEY_FAVORITES).beginArray();
+        try (Cursor cursor = resolver.query(FavoriteProvider.Columns.CONTENT_URI,
+                new String[]{FavoriteProvider.Columns.TITLE, FavoriteProvider.Columns.URL,
+                        FavoriteProvider.Columns.COLOR}, null, null,
+                FavoriteProvider.Columns.SORT_ORDER)) {
+            while (cursor != null && cursor.moveToNext()) {
+                writer.beginObject();
+                writer.name(KEY_TITLE).value(cursor.getString(0));
+                writer.name(KEY_URL).value(cursor.getString(1));
+                writer.name(KEY_COLOR).value(cursor.getInt(2));
+                writer.endObject();
+                count++;
+            }
+        }
+        writer.endArray();
+
+        writer.name(KEY_HISTORY).beginArray();
+        try (Cursor cursor = resolver.query(HistoryProvider.Columns.CONTENT_URI,
+                new String[]{HistoryProvider.Columns.TITLE, HistoryProvider.Columns.URL,
+                        HistoryProvider.Columns.TIMESTAMP}, null, null, BaseColumns._ID)) {
+            while (cursor != null && cursor.moveToNext()) {
+                writer.beginObject();
+                writer.name(KEY_TITLE).value(cursor.getString(0));
+                writer.name(KEY_URL).value(cursor.getString(1));
+                writer.name(KEY_TIMESTAMP).value(cursor.getLong(2));
+                writer.endObject();
+                count++;
+            }
+        }
+        writer.endArray();
+
+        writer.endObject();
+        writer.flush();
+        return count;
+    }
+
+    static void read(@NonNull Reader in, @NonNull ImportBatch batch) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case KEY_FAVORITES:
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readEntry(reader, batch, true);
+                    }
+                    reader.endArray();
+                    break;
+                case KEY_HISTORY:
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readEntry(reader, batch, false);
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    // Includes the version, the format has only one so far
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readEntry(@NonNull JsonReader reader, @NonNull ImportBatch batch,
+                                  boolean favorite) throws IOException {
+        String title = null;
+        String url = null;
+        Integer color = null;
+        long timestamp = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case KEY_TITLE:
+                    title = reader.nextString();
+                    break;
+                case KEY_URL:
+                    url = reader.nextString();
+                    break;
+                case KEY_COLOR:
+                    color = reader.nextInt();
+                    break;
+                case KEY_TIMESTAMP:
+                    timestamp = reader.nextLong();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (!favorite) {
+            batch.addHistory(title, url, timestamp);
+        } else if (color != null) {
+            batch.addFavorite(title, url, color);
+        } else {
+            batch.addFavorite(title, url);
+        }
+    }
+}
@@ -17,19 +17,20 @@ package org.lineageos.jelly.favorite;
 
 import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Color;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
-import android.provider.BaseColumns;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.EditText;
 import android.widget.LinearLayout;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
@@ -73,18 +74,19 @@ public class FavoriteActivity extends AppCompatActivity {
         mList = findViewById(R.id.favorite_list);
         mEmptyView = findViewById(R.id.favorite_empty_layout);
 
-        mAdapter = new FavoriteAdapter(this);
+        mAdapter = new FavoriteAdapter();
 
         getSupportLoaderManager().initLoader(0, null, new LoaderCallbacks<Cursor>() {
             @Override
             public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+                // Read in the order of the sort order index
                 return new CursorLoader(FavoriteActivity.this, FavoriteProvider.Columns.CONTENT_URI,
-                        null, null, null, BaseColumns._ID + " DESC");
+                        null, null, null, FavoriteProvider.Columns.SORT_ORDER + " DESC");
             }
 
             @Override
             public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-                mAdapter.swapCursor(data);
+                mAdapter.submitCursor(data);
 
                 if ( (data != null) && (data.getCount() == 0) ) {
                     mList.setVisibility(View.GONE);
@@ -94,7 +96,7 @@ public class FavoriteActivity extends AppCompatActivity {
 
             @Override
             public void onLoaderReset(Loader<Cursor> loader) {
-                mAdapter.swapCursor(null);
+                mAdapter.submitCursor(null);
             }
         });
 
@@ -157,8 +159,8 @@ public class FavoriteActivity extends AppCompatActivity {
                                 urlEdit.setError(error);
                                 urlEdit.requestFocus();
                             }
-                            new UpdateFavoriteTask(getContentResolver(), id, updatedTitle,
-                                    updatedUrl).execute();
+                            new UpdateFavoriteTask(this, id, updatedTitle, updatedUrl)
+                                    .execute();
                             dialog.dismiss();
                         }))
                 .setNeutralButton(R.string.favorite_edit_delete,
@@ -171,23 +173,32 @@ public class FavoriteActivity extends AppCompatActivity {
                 .show();
     }
 
-    private static class UpdateFavoriteTask extends AsyncTask<Void, Void, Void> {
-        private final ContentResolver contentResolver;
+    private static class UpdateFavoriteTask
+            extends AsyncTask<Void, Void, FavoriteProvider.UpdateResult> {
+        private final Context context;
         private final long id;
         private final String title;
         private final String url;
 
-        UpdateFavoriteTask(ContentResolver contentResolver, long id, String title, String url) {
-            this.contentResolver = contentResolver;
+        UpdateFavoriteTask(Context context, long id, String title, String url) {
+            this.context = context.getApplicationContext();
             this.id = id;
             this.title = title;
             this.url = url;
         }
 
         @Override
-        protected Void doInBackground(Void... params) {
-            FavoriteProvider.updateItem(contentResolver, id, title, url);
-            return null;
+        protected FavoriteProvider.UpdateResult doInBackground(Void... params) {
+            return FavoriteProvider.updateItem(context.getContentResolver(), id, title, url);
+        }
+
+        @Override
+        protected void onPostExecute(FavoriteProvider.UpdateResult result) {
+            // A favorite deleted in the meantime is simply gone from the list
+            if (result == FavoriteProvider.UpdateResult.DUPLICATE_URL) {
+                Toast.makeText(context, R.string.favorite_edit_duplicate,
+                        Toast.LENGTH_LONG).show();
+            }
         }
     }
 
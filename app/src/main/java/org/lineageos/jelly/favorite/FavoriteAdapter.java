@@ -15,46 +15,66 @@
  */
 package org.lineageos.jelly.favorite;
 
-import android.content.Context;
 import android.database.Cursor;
 import android.provider.BaseColumns;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.lineageos.jelly.R;
 
+import java.util.ArrayList;
+import java.util.List;
+
 class FavoriteAdapter extends RecyclerView.Adapter<FavoriteHolder> {
-    private final Context mContext;
-    private Cursor mCursor;
+    private static final DiffUtil.ItemCallback<FavoriteItem> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<FavoriteItem>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull FavoriteItem oldItem,
+                                               @NonNull FavoriteItem newItem) {
+                    return oldItem.id == newItem.id;
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull FavoriteItem oldItem,
+                                                  @NonNull FavoriteItem newItem) {
+                    return oldItem.hasSameContents(newItem);
+                }
+            };
 
-    private int mIdColumnIndex;
-    private int mTitleColumnIndex;
-    private int mUrlColumnIndex;
-    private int mColorColumnIndex;
+    // Diffs the lists in the background, only the favorites that changed are rebound
+    private final AsyncListDiffer<FavoriteItem> mDiffer =
+            new AsyncListDiffer<>(this, DIFF_CALLBACK);
 
-    FavoriteAdapter(Context context) {
-        mContext = context;
+    FavoriteAdapter() {
         setHasStableIds(true);
     }
 
-    void swapCursor(Cursor cursor) {
-        if (cursor == mCursor) {
+    /**
+     * Show the favorites of the cursor, which is left open.
+     */
+    void submitCursor(Cursor cursor) {
+        if (cursor == null) {
+            mDiffer.submitList(null);
             return;
         }
-        if (mCursor != null) {
-            mCursor.close();
-        }
-        mCursor = cursor;
-        if (mCursor != null) {
-            mIdColumnIndex = cursor.getColumnIndexOrThrow(BaseColumns._ID);
-            mTitleColumnIndex = cursor.getColumnIndexOrThrow(FavoriteProvider.Columns.TITLE);
-            mUrlColumnIndex = cursor.getColumnIndexOrThrow(FavoriteProvider.Columns.URL);
-            mColorColumnIndex = cursor.getColumnIndexOrThrow(FavoriteProvider.Columns.COLOR);
+
+        int idColumnIndex = cursor.getColumnIndexOrThrow(BaseColumns._ID);
+        int titleColumnIndex = cursor.getColumnIndexOrThrow(FavoriteProvider.Columns.TITLE);
+        int urlColumnIndex = cursor.getColumnIndexOrThrow(FavoriteProvider.Columns.URL);
+        int colorColumnIndex = cursor.getColumnIndexOrThrow(FavoriteProvider.Columns.COLOR);
+        List<FavoriteItem> items = new ArrayList<>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            items.add(new FavoriteItem(cursor.getLong(idColumnIndex),
+                    cursor.getString(titleColumnIndex), cursor.getString(urlColumnIndex),
+                    cursor.getInt(colorColumnIndex)));
         }
-        notifyDataSetChanged();
+        mDiffer.submitList(items);
     }
 
     @NonNull
@@ -66,25 +86,16 @@ class FavoriteAdapter extends RecyclerView.Adapter<FavoriteHolder> {
 
     @Override
     public void onBindViewHolder(@NonNull FavoriteHolder holder, int position) {
-        Cursor cursor = this.mCursor;
-        if (cursor == null) return;
-
-        long id = cursor.getLong(mIdColumnIndex);
-        String title = cursor.getString(mTitleColumnIndex);
-        String url = cursor.getString(mUrlColumnIndex);
-        int color = cursor.getInt(mColorColumnIndex);
-        holder.bind(mContext, id, title, url, color);
+        holder.bind(mDiffer.getCurrentList().get(position));
     }
 
     @Override
     public int getItemCount() {
-        return mCursor != null ? mCursor.getCount() : 0;
+        return mDiffer.getCurrentList().size();
     }
 
     @Override
     public long getItemId(int position) {
-        Cursor cursor = this.mCursor;
-        if (cursor == null) return -1;
-        return cursor.moveToPosition(position) ? cursor.getLong(mIdColumnIndex) : -1;
+        return mDiffer.getCurrentList().get(position).id;
     }
 }
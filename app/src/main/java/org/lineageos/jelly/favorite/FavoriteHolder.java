@@ -17,7 +17,6 @@ package org.lineageos.jelly.favorite;
 
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Color;
 import android.net.Uri;
 import android.view.View;
 import android.widget.TextView;
@@ -27,33 +26,35 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import org.lineageos.jelly.MainActivity;
 import org.lineageos.jelly.R;
-import org.lineageos.jelly.utils.UiUtils;
 
 class FavoriteHolder extends RecyclerView.ViewHolder {
     private final CardView mCard;
     private final TextView mTitle;
+    private FavoriteItem mItem;
 
     FavoriteHolder(View view) {
         super(view);
         mCard = view.findViewById(R.id.row_favorite_card);
         mTitle = view.findViewById(R.id.row_favorite_title);
-    }
-
-    void bind(Context context, long id, String title, String url, int color) {
-        String adjustedTitle = title == null || title.isEmpty() ? url.split("/")[2] : title;
-        mTitle.setText(adjustedTitle);
-        mTitle.setTextColor(UiUtils.isColorLight(color) ? Color.BLACK : Color.WHITE);
-        mCard.setCardBackgroundColor(color);
 
+        // Set once, they act on whichever item is bound at the time
         mCard.setOnClickListener(v -> {
+            Context context = v.getContext();
             Intent intent = new Intent(context, MainActivity.class);
-            intent.setData(Uri.parse(url));
+            intent.setData(Uri.parse(mItem.url));
             context.startActivity(intent);
         });
 
         mCard.setOnLongClickListener(v -> {
-            ((FavoriteActivity) context).editItem(id, adjustedTitle, url);
+            ((FavoriteActivity) v.getContext()).editItem(mItem.id, mItem.displayTitle, mItem.url);
             return true;
         });
     }
+
+    void bind(FavoriteItem item) {
+        mItem = item;
+        mTitle.setText(item.displayTitle);
+        mTitle.setTextColor(item.textColor);
+        mCard.setCardBackgroundColor(item.color);
+    }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.jelly.favorite;
+
+import android.graphics.Color;
+import android.text.TextUtils;
+
+import org.lineageos.jelly.utils.UiUtils;
+import org.lineageos.jelly.utils.UrlUtils;
+
+/**
+ * Immutable snapshot of a row of the favorites table, along with how it's
+ * displayed.
+ */
+class FavoriteItem {
+    final long id;
+    final String title;
+    final String url;
+    final int color;
+    final String displayTitle;
+    final int textColor;
+
+    FavoriteItem(long id, String title, String url, int color) {
+        this.id = id;
+        this.title = title;
+        this.url = url;
+        this.color = color;
+        this.displayTitle = TextUtils.isEmpty(title) && url != null
+                ? UrlUtils.getDisplayHost(url) : title;
+        this.textColor = UiUtils.isColorLight(color) ? Color.BLACK : Color.WHITE;
+    }
+
+    boolean hasSameContents(FavoriteItem other) {
+        return color == other.color && TextUtils.equals(title, other.title) &&
+                TextUtils.equals(url, other.url);
+    }
+}
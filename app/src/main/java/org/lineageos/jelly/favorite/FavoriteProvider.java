@@ -16,27 +16,41 @@
 package org.lineageos.jelly.favorite;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import org.lineageos.jelly.utils.ExtUtils;
 
+import java.util.ArrayList;
+
 public class FavoriteProvider extends ContentProvider {
+    private static final String TAG = "FavoriteProvider";
     private static final int MATCH_ALL = 0;
     private static final int MATCH_ID = 1;
     private static final UriMatcher sURIMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+    private static final String METHOD_ADD_OR_UPDATE = "addOrUpdate";
+    private static final String EXTRA_TITLE = "title";
+    private static final String EXTRA_URL = "url";
+    private static final String EXTRA_COLOR = "color";
 
     static {
         sURIMatcher.addURI(Columns.AUTHORITY, "favorite", MATCH_ALL);
@@ -45,37 +59,45 @@ public class FavoriteProvider extends ContentProvider {
 
     private FavoriteDbHelper mDbHelper;
 
+    // Not null while the thread applies a batch: whether it changed anything so far
+    private final ThreadLocal<Boolean> mBatchChanged = new ThreadLocal<>();
+
+    /**
+     * Save a page as a favorite, or update the favorite that has its url.
+     * Done atomically by the provider, so saving the same page twice at
+     * once can't create two favorites.
+     */
     public static void addOrUpdateItem(ContentResolver resolver, String title, String url,
                                        int color) {
-        long existingId = -1;
-        Cursor cursor = resolver.query(Columns.CONTENT_URI, new String[]{BaseColumns._ID},
-                Columns.URL + "=?", new String[]{url}, null);
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                existingId = cursor.getLong(0);
-            }
-            cursor.close();
-        }
-
-        ContentValues values = new ContentValues();
-        values.put(Columns.TITLE, title);
-        values.put(Columns.COLOR, color);
+        Bundle extras = new Bundle();
+        extras.putString(EXTRA_TITLE, title);
+        extras.putString(EXTRA_URL, url);
+        extras.putInt(EXTRA_COLOR, color);
+        resolver.call(Columns.CONTENT_URI, METHOD_ADD_OR_UPDATE, null, extras);
+    }
 
-        if (existingId >= 0) {
-            resolver.update(ContentUris.withAppendedId(Columns.CONTENT_URI, existingId),
-                    values, null, null);
-        } else {
-            values.put(Columns.URL, url);
-            resolver.insert(Columns.CONTENT_URI, values);
-        }
+    public enum UpdateResult {
+        UPDATED,
+        // Deleted in the meantime
+        NOT_FOUND,
+        // Another favorite has the url, nothing was changed
+        DUPLICATE_URL,
     }
 
-    public static void updateItem(ContentResolver resolver, long id, String title, String url) {
+    @NonNull
+    public static UpdateResult updateItem(ContentResolver resolver, long id, String title,
+                                          String url) {
         ContentValues values = new ContentValues();
         values.put(Columns.TITLE, title);
         values.put(Columns.URL, url);
 
-        resolver.update(ContentUris.withAppendedId(Columns.CONTENT_URI, id), values, null, null);
+        try {
+            return resolver.update(ContentUris.withAppendedId(Columns.CONTENT_URI, id), values,
+                    null, null) > 0 ? UpdateResult.UPDATED : UpdateResult.NOT_FOUND;
+        } catch (SQLiteConstraintException e) {
+            Log.w(TAG, "Unable to update favorite " + id, e);
+            return UpdateResult.DUPLICATE_URL;
+        }
     }
 
     @Override
@@ -126,14 +148,77 @@ public class FavoriteProvider extends ContentProvider {
         }
 
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        long rowID = db.insert(FavoriteDbHelper.DB_TABLE_FAVORITES, null, values);
+        long rowID;
+        // The sort order must still be the next one when the row is inserted
+        db.beginTransaction();
+        try {
+            rowID = insertFavorite(db, values);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
         if (rowID <= 0) {
             return null;
         }
 
-        ExtUtils.requireContextExt(this).getContentResolver().notifyChange(Columns.CONTENT_URI, null);
+        Uri itemUri = ContentUris.withAppendedId(Columns.CONTENT_URI, rowID);
+        notifyChange(itemUri);
 
-        return ContentUris.withAppendedId(Columns.CONTENT_URI, rowID);
+        return itemUri;
+    }
+
+    /**
+     * @return the id of the new favorite, -1 if its url is already saved.
+     */
+    private static long insertFavorite(SQLiteDatabase db, ContentValues values) {
+        if (!values.containsKey(Columns.SORT_ORDER)) {
+            // New favorites come first
+            values.put(Columns.SORT_ORDER, getNextSortOrder(db));
+        }
+        return db.insertWithOnConflict(FavoriteDbHelper.DB_TABLE_FAVORITES, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    private static long getNextSortOrder(SQLiteDatabase db) {
+        // Read from the end of the sort order index
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + Columns.SORT_ORDER +
+                "), 0) + 1 FROM " + FavoriteDbHelper.DB_TABLE_FAVORITES, null);
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (extras == null || !METHOD_ADD_OR_UPDATE.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        String url = extras.getString(EXTRA_URL);
+        if (url == null) {
+            throw new IllegalArgumentException("Missing url");
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(Columns.TITLE, extras.getString(EXTRA_TITLE));
+        values.put(Columns.COLOR, extras.getInt(EXTRA_COLOR));
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long id = -1;
+        // Upsert clauses need SQLite 3.24, the transaction makes the update
+        // and the insert atomic. Both find the row on the url index
+        db.beginTransaction();
+        try {
+            if (db.update(FavoriteDbHelper.DB_TABLE_FAVORITES, values,
+                    Columns.URL + " = ?", new String[]{url}) == 0) {
+                values.put(Columns.URL, url);
+                id = insertFavorite(db, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        notifyChange(id > 0 ? ContentUris.withAppendedId(Columns.CONTENT_URI, id)
+                : Columns.CONTENT_URI);
+        return null;
     }
 
     @Override
@@ -145,23 +230,26 @@ public class FavoriteProvider extends ContentProvider {
 
         switch (match) {
             case MATCH_ALL:
-                count = db.update(FavoriteDbHelper.DB_TABLE_FAVORITES,
-                        values, selection, selectionArgs);
                 break;
             case MATCH_ID:
                 if (selection != null || selectionArgs != null) {
                     throw new UnsupportedOperationException(
                             "Cannot update URI " + uri + " with a where clause");
                 }
-                count = db.update(FavoriteDbHelper.DB_TABLE_FAVORITES, 
-                        values, BaseColumns._ID + " = ?", new String[]{uri.getLastPathSegment()});
+                selection = BaseColumns._ID + " = ?";
+                selectionArgs = new String[]{uri.getLastPathSegment()};
                 break;
             default:
                 throw new UnsupportedOperationException("Cannot update that URI: " + uri);
         }
 
+        // Throws SQLiteConstraintException if another favorite already has
+        // the url, so that callers can tell it from a missing favorite
+        count = db.updateWithOnConflict(FavoriteDbHelper.DB_TABLE_FAVORITES, values,
+                selection, selectionArgs, SQLiteDatabase.CONFLICT_ABORT);
+
         if (count > 0) {
-            ExtUtils.requireContextExt(this).getContentResolver().notifyChange(Columns.CONTENT_URI, null);
+            notifyChange(match == MATCH_ID ? uri : Columns.CONTENT_URI);
         }
 
         return count;
@@ -193,12 +281,76 @@ public class FavoriteProvider extends ContentProvider {
         int count = db.delete(FavoriteDbHelper.DB_TABLE_FAVORITES, localSelection, localSelectionArgs);
 
         if (count > 0) {
-            ExtUtils.requireContextExt(this).getContentResolver().notifyChange(Columns.CONTENT_URI, null);
+            notifyChange(match == MATCH_ID ? uri : Columns.CONTENT_URI);
+        }
+
+        return count;
+    }
+
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        if (sURIMatcher.match(uri) != MATCH_ALL) {
+            return 0;
         }
 
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (insertFavorite(db, value) > 0) {
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (count > 0) {
+            notifyChange(Columns.CONTENT_URI);
+        }
         return count;
     }
 
+    /**
+     * Apply all the operations in a single transaction, with a single notification.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        mBatchChanged.set(false);
+        boolean changed = false;
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            changed = mBatchChanged.get();
+            return results;
+        } finally {
+            db.endTransaction();
+            mBatchChanged.remove();
+            if (changed) {
+                notifyChange(Columns.CONTENT_URI);
+            }
+        }
+    }
+
+    /**
+     * @param uri the changed item, or the whole table when several rows changed.
+     */
+    private void notifyChange(@NonNull Uri uri) {
+        if (mBatchChanged.get() != null) {
+            // The whole table is notified once the batch is committed
+            mBatchChanged.set(true);
+        } else {
+            ExtUtils.requireContextExt(this).getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     public interface Columns extends BaseColumns {
         String AUTHORITY = "org.lineageos.jelly.favorite";
         Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/favorite");
@@ -206,15 +358,29 @@ public class FavoriteProvider extends ContentProvider {
         String TITLE = "title";
         String URL = "url";
         String COLOR = "color";
+        /**
+         * Position of the favorite, the highest first.
+         */
+        String SORT_ORDER = "sort_order";
     }
 
     private static class FavoriteDbHelper extends SQLiteOpenHelper {
-        private static final int DB_VERSION = 2;
+        private static final int DB_VERSION = 3;
         private static final String DB_NAME = "FavoriteDatabase";
         private static final String DB_TABLE_FAVORITES = "favorites";
+        private static final String DB_INDEX_URL = "favorites_url_idx";
+        private static final String DB_INDEX_SORT_ORDER = "favorites_sort_order_idx";
 
         public FavoriteDbHelper(Context context) {
             super(context, DB_NAME, null, DB_VERSION);
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            db.execSQL("PRAGMA synchronous = NORMAL");
+            // Favorites are few, a small cache holds the whole table
+            db.execSQL("PRAGMA cache_size = -512");
         }
 
         @Override
@@ -223,7 +389,16 @@ public class FavoriteProvider extends ContentProvider {
                     BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
                     Columns.TITLE + " TEXT, " +
                     Columns.URL + " TEXT, " +
-                    Columns.COLOR + " INTEGER)");
+                    Columns.COLOR + " INTEGER, " +
+                    Columns.SORT_ORDER + " INTEGER NOT NULL DEFAULT 0)");
+            createIndexes(db);
+        }
+
+        private static void createIndexes(SQLiteDatabase db) {
+            db.execSQL("CREATE UNIQUE INDEX " + DB_INDEX_URL + " ON " +
+                    DB_TABLE_FAVORITES + "(" + Columns.URL + ")");
+            db.execSQL("CREATE INDEX " + DB_INDEX_SORT_ORDER + " ON " +
+                    DB_TABLE_FAVORITES + "(" + Columns.SORT_ORDER + ")");
         }
 
         @Override
@@ -243,6 +418,18 @@ public class FavoriteProvider extends ContentProvider {
                 db.execSQL("ALTER TABLE " + DB_TABLE_FAVORITES
                         + "_new RENAME TO " + DB_TABLE_FAVORITES);
             }
+            if (oldVersion < 3) {
+                // Keep the latest of the favorites saved more than once
+                db.execSQL("DELETE FROM " + DB_TABLE_FAVORITES + " WHERE " + BaseColumns._ID +
+                        " NOT IN (SELECT MAX(" + BaseColumns._ID + ") FROM " +
+                        DB_TABLE_FAVORITES + " GROUP BY " + Columns.URL + ")");
+                db.execSQL("ALTER TABLE " + DB_TABLE_FAVORITES + " ADD COLUMN " +
+                        Columns.SORT_ORDER + " INTEGER NOT NULL DEFAULT 0");
+                // They were sorted by id so far
+                db.execSQL("UPDATE " + DB_TABLE_FAVORITES + " SET " + Columns.SORT_ORDER +
+                        " = " + BaseColumns._ID);
+                createIndexes(db);
+            }
         }
     }
 }
@@ -15,25 +15,35 @@
  */
 package org.lineageos.jelly.history;
 
+import android.app.DatePickerDialog;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Color;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.provider.BaseColumns;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.ProgressBar;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.view.ActionMode;
+import androidx.appcompat.widget.SearchView;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.view.ViewCompat;
-import androidx.loader.app.LoaderManager;
-import androidx.loader.content.CursorLoader;
-import androidx.loader.content.Loader;
 import androidx.recyclerview.widget.DefaultItemAnimator;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
@@ -46,18 +56,90 @@ import org.lineageos.jelly.R;
 import org.lineageos.jelly.history.HistoryAdapter;
 import org.lineageos.jelly.history.HistoryCallBack;
 import org.lineageos.jelly.history.HistoryProvider;
+import org.lineageos.jelly.suggestions.SuggestionsAdapter;
 import org.lineageos.jelly.utils.UiUtils;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
 public class HistoryActivity extends AppCompatActivity {
+    private static final String TAG = "HistoryActivity";
+    private static final String STATE_PENDING_DELETES = "pending_deletes";
+    // Rows deleted by a single statement
+    private static final int DELETE_CHUNK_SIZE = 500;
+
     private View mEmptyView;
+    private RecyclerView mList;
 
     private HistoryAdapter mAdapter;
+    private HistorySearch mSearch;
+    private ActionMode mActionMode;
+    // Shows the progress of a range deletion, dismissed with the activity
+    private AlertDialog mDeletingDialog;
+    // Swiped away, deleted together once they can't be undone anymore
+    private final Set<Long> mPendingDeletes = new LinkedHashSet<>();
+    private String mQuery = "";
+    // Keeps the search results current while entries are deleted or restored
+    private final ContentObserver mSearchObserver = new ContentObserver(
+            new Handler(Looper.getMainLooper())) {
+        @Override
+        public void onChange(boolean selfChange) {
+            if (!mQuery.isEmpty()) {
+                mSearch.search(mQuery);
+            }
+        }
+    };
+    private final ActionMode.Callback mActionModeCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_history_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            if (item.getItemId() != R.id.menu_history_selection_delete) {
+                return false;
+            }
+            new DeleteHistoryTask(getContentResolver(), mAdapter.getSelectedIds())
+                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            mode.finish();
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            mActionMode = null;
+            mAdapter.clearSelection();
+        }
+    };
     private final AdapterDataObserver mAdapterDataObserver =
             new AdapterDataObserver() {
                 @Override
                 public void onChanged() {
                     updateHistoryView(mAdapter.getItemCount() == 0);
                 }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    updateHistoryView(mAdapter.getItemCount() == 0);
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    updateHistoryView(mAdapter.getItemCount() == 0);
+                }
             };
 
     @Override
@@ -78,43 +160,66 @@ public class HistoryActivity extends AppCompatActivity {
         toolbar.setNavigationOnClickListener(v -> finish());
 
         RecyclerView list = findViewById(R.id.history_list);
+        mList = list;
         mEmptyView = findViewById(R.id.history_empty_layout);
 
         mAdapter = new HistoryAdapter(this);
-
-        getSupportLoaderManager().initLoader(0, null, new LoaderManager.LoaderCallbacks<Cursor>() {
-            @Override
-            public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-                return new CursorLoader(HistoryActivity.this, HistoryProvider.Columns.CONTENT_URI,
-                        null, null, null, HistoryProvider.Columns.TIMESTAMP + " DESC");
-            }
-
-            @Override
-            public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-                mAdapter.swapCursor(cursor);
-            }
-
-            @Override
-            public void onLoaderReset(Loader<Cursor> loader) {
-                mAdapter.swapCursor(null);
-            }
-        });
+        mSearch = new HistorySearch(this, (query, results) -> mAdapter.setSearchResults(results));
+        getContentResolver().registerContentObserver(HistoryProvider.Columns.CONTENT_URI, true,
+                mSearchObserver);
 
         list.setLayoutManager(new LinearLayoutManager(this));
         list.addItemDecoration(new HistoryAnimationDecorator(this));
+        list.addItemDecoration(new HistorySectionDecoration(this, mAdapter));
         list.setItemAnimator(new DefaultItemAnimator());
         list.setAdapter(mAdapter);
 
         mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
+        mAdapter.setSelectionListener(count -> {
+            if (count == 0) {
+                if (mActionMode != null) {
+                    mActionMode.finish();
+                }
+                return;
+            }
+            if (mActionMode == null) {
+                mActionMode = startSupportActionMode(mActionModeCallback);
+            }
+            if (mActionMode != null) {
+                mActionMode.setTitle(String.valueOf(count));
+            }
+        });
 
-        ItemTouchHelper helper = new ItemTouchHelper(new HistoryCallBack(this, values -> {
-            Snackbar.make(findViewById(R.id.coordinator_layout), R.string.history_snackbar_item_deleted, Snackbar.LENGTH_LONG)
-                    .setAction(R.string.history_snackbar_item_deleted_message, l ->
-                            getContentResolver().insert(HistoryProvider.Columns.CONTENT_URI, values))
-                    .show();
+        ItemTouchHelper helper = new ItemTouchHelper(new HistoryCallBack(this, position -> {
+            HistoryItem item = mAdapter.getItem(position);
+            if (item == null) {
+                return;
+            }
+            mAdapter.hide(item);
+            mPendingDeletes.add(item.id);
+            showDeletedSnackbar(() -> {
+                mPendingDeletes.remove(item.id);
+                mAdapter.unhide(item);
+            });
         }));
         helper.attachToRecyclerView(list);
 
+        long[] pendingDeletes = savedInstance != null
+                ? savedInstance.getLongArray(STATE_PENDING_DELETES) : null;
+        if (pendingDeletes != null && pendingDeletes.length > 0) {
+            // Recreated while a deletion could still be undone, offer it again
+            List<Long> ids = new ArrayList<>(pendingDeletes.length);
+            for (long id : pendingDeletes) {
+                ids.add(id);
+            }
+            mPendingDeletes.addAll(ids);
+            mAdapter.hide(ids);
+            showDeletedSnackbar(() -> {
+                mPendingDeletes.removeAll(ids);
+                mAdapter.unhide(ids);
+            });
+        }
+
         int listTop = list.getTop();
         list.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
@@ -129,67 +234,356 @@ public class HistoryActivity extends AppCompatActivity {
         });
     }
 
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        long[] ids = new long[mPendingDeletes.size()];
+        int i = 0;
+        for (long id : mPendingDeletes) {
+            ids[i++] = id;
+        }
+        outState.putLongArray(STATE_PENDING_DELETES, ids);
+    }
+
     @Override
     public void onDestroy() {
+        // Otherwise the next instance gets them back, to be undone or deleted.
+        // Leaving the activity without finishing it leaves Undo available
+        if (isFinishing()) {
+            commitPendingDeletes();
+        }
         mAdapter.unregisterAdapterDataObserver(mAdapterDataObserver);
+        mAdapter.close();
+        getContentResolver().unregisterContentObserver(mSearchObserver);
+        mSearch.close();
+        if (mDeletingDialog != null) {
+            // The deletion goes on, its window doesn't
+            mDeletingDialog.dismiss();
+            mDeletingDialog = null;
+        }
         super.onDestroy();
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_history, menu);
+
+        SearchView searchView = (SearchView) menu.findItem(R.id.menu_history_search)
+                .getActionView();
+        searchView.setQueryHint(getString(R.string.history_search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
         return true;
     }
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.menu_history_jump) {
+            showSections();
+            return true;
+        }
         if (item.getItemId() != R.id.menu_history_delete) {
             return super.onOptionsItemSelected(item);
         }
 
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.history_delete_title)
+                .setItems(R.array.history_delete_ranges, (dialog, which) -> {
+                    switch (which) {
+                        case 0:
+                            deleteSince(TimeUnit.HOURS.toMillis(1));
+                            break;
+                        case 1:
+                            deleteSince(TimeUnit.DAYS.toMillis(1));
+                            break;
+                        case 2:
+                            deleteSince(TimeUnit.DAYS.toMillis(7));
+                            break;
+                        case 3:
+                            pickRange();
+                            break;
+                        default:
+                            confirmDeleteAll();
+                            break;
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, (d, w) -> d.dismiss())
+                .show();
+        return true;
+    }
+
+    private void confirmDeleteAll() {
         new AlertDialog.Builder(this)
                 .setTitle(R.string.history_delete_title)
                 .setMessage(R.string.history_delete_message)
                 .setPositiveButton(R.string.history_delete_positive,
-                        (dialog, which) -> deleteAll())
+                        (dialog, which) -> delete(HistoryProvider.Columns.CONTENT_URI,
+                                null, null))
                 .setNegativeButton(android.R.string.cancel, (d, w) -> d.dismiss())
                 .show();
-        return true;
+    }
+
+    /**
+     * Ask for the first and the last day of the entries to delete.
+     */
+    private void pickRange() {
+        Calendar today = Calendar.getInstance();
+        DatePickerDialog fromDialog = new DatePickerDialog(this, (fromView, year, month, day) -> {
+            Calendar from = Calendar.getInstance();
+            from.clear();
+            from.set(year, month, day);
+            DatePickerDialog toDialog = new DatePickerDialog(this, (toView, y, m, d) -> {
+                Calendar to = Calendar.getInstance();
+                to.clear();
+                to.set(y, m, d);
+                // The whole last day is included
+                to.add(Calendar.DAY_OF_MONTH, 1);
+                deleteRange(from.getTimeInMillis(), to.getTimeInMillis());
+            }, year, month, day);
+            toDialog.getDatePicker().setMinDate(from.getTimeInMillis());
+            toDialog.getDatePicker().setMaxDate(System.currentTimeMillis());
+            toDialog.setTitle(R.string.history_delete_range_to);
+            toDialog.show();
+        }, today.get(Calendar.YEAR), today.get(Calendar.MONTH), today.get(Calendar.DAY_OF_MONTH));
+        fromDialog.getDatePicker().setMaxDate(System.currentTimeMillis());
+        fromDialog.setTitle(R.string.history_delete_range_from);
+        fromDialog.show();
+    }
+
+    private void deleteSince(long age) {
+        deleteRange(System.currentTimeMillis() - age, Long.MAX_VALUE);
+    }
+
+    /**
+     * Delete the visits made between the given times, found on the timestamp
+     * index, and the pages that were only visited then.
+     */
+    private void deleteRange(long from, long to) {
+        delete(HistoryProvider.Columns.VISITS_URI,
+                HistoryProvider.Columns.TIMESTAMP + " >= ? AND " +
+                        HistoryProvider.Columns.TIMESTAMP + " < ?",
+                new String[]{String.valueOf(from), String.valueOf(to)});
+    }
+
+    private void showSections() {
+        List<HistoryPagedSource.Section> sections = mAdapter.getSections();
+        if (sections.isEmpty()) {
+            return;
+        }
+        String[] labels = new String[sections.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = sections.get(i).label;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.history_jump_to)
+                .setItems(labels, (dialog, which) -> {
+                    // The entries in between are never loaded
+                    LinearLayoutManager layoutManager =
+                            (LinearLayoutManager) mList.getLayoutManager();
+                    layoutManager.scrollToPositionWithOffset(sections.get(which).position, 0);
+                })
+                .show();
+    }
+
+    private void search(@NonNull String query) {
+        mQuery = query.trim();
+        if (mQuery.isEmpty()) {
+            mSearch.cancel();
+            mAdapter.setSearchResults(null);
+        } else {
+            mSearch.search(mQuery);
+        }
+    }
+
+    private void showDeletedSnackbar(@NonNull Runnable undo) {
+        Snackbar.make(findViewById(R.id.coordinator_layout), R.string.history_snackbar_item_deleted, Snackbar.LENGTH_LONG)
+                .setAction(R.string.history_snackbar_item_deleted_message, l -> {
+                    undo.run();
+                    if (!mQuery.isEmpty()) {
+                        mSearch.search(mQuery);
+                    }
+                })
+                .addCallback(new Snackbar.Callback() {
+                    @Override
+                    public void onDismissed(Snackbar snackbar, int event) {
+                        // A newer deletion took over, it will delete this one too.
+                        // When recreated, the next instance takes them over
+                        if (event != DISMISS_EVENT_CONSECUTIVE && !isChangingConfigurations()) {
+                            commitPendingDeletes();
+                        }
+                    }
+                })
+                .show();
+    }
+
+    private void commitPendingDeletes() {
+        if (mPendingDeletes.isEmpty()) {
+            return;
+        }
+        new DeleteHistoryTask(getContentResolver(), new ArrayList<>(mPendingDeletes))
+                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        mPendingDeletes.clear();
     }
 
     private void updateHistoryView(boolean empty) {
         mEmptyView.setVisibility(empty ? View.VISIBLE : View.GONE);
     }
 
-    private void deleteAll() {
-        AlertDialog dialog = new AlertDialog.Builder(this)
+    /**
+     * @param uri the history to delete entries from, or the visits.
+     */
+    private void delete(@NonNull Uri uri, @Nullable String selection,
+                        @Nullable String[] selectionArgs) {
+        mDeletingDialog = new AlertDialog.Builder(this)
             .setTitle(R.string.history_delete_title)
             .setView(R.layout.history_deleting_dialog)
             .setCancelable(false)
             .create();
-        dialog.show();
+        mDeletingDialog.show();
 
-        new DeleteAllHistoryTask(getContentResolver(), dialog).execute();
+        // The queries typed in the url bar go with the pages they led to
+        SuggestionsAdapter.clearCache(this);
+        new DeleteHistoryRangeTask(this, uri, selection, selectionArgs)
+                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
-    private static class DeleteAllHistoryTask extends AsyncTask<Void, Void, Void> {
+    private static class DeleteHistoryTask extends AsyncTask<Void, Void, Void> {
         private final ContentResolver contentResolver;
-        private final AlertDialog dialog;
+        private final Collection<Long> ids;
 
-        DeleteAllHistoryTask(ContentResolver contentResolver, AlertDialog dialog) {
+        DeleteHistoryTask(ContentResolver contentResolver, Collection<Long> ids) {
             this.contentResolver = contentResolver;
-            this.dialog = dialog;
+            this.ids = ids;
         }
 
         @Override
         protected Void doInBackground(Void... voids) {
-            contentResolver.delete(HistoryProvider.Columns.CONTENT_URI, null, null);
+            // Statements of bounded length, applied in a single transaction
+            // with a single notification
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            StringBuilder selection = new StringBuilder();
+            int count = 0;
+            for (long id : ids) {
+                selection.append(count == 0 ? BaseColumns._ID + " IN (" : ",").append(id);
+                if (++count == DELETE_CHUNK_SIZE) {
+                    operations.add(newDelete(selection));
+                    selection.setLength(0);
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                operations.add(newDelete(selection));
+            }
+
+            try {
+                contentResolver.applyBatch(HistoryProvider.Columns.AUTHORITY, operations);
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(TAG, "Unable to delete the history entries", e);
+            }
             return null;
         }
 
+        private static ContentProviderOperation newDelete(StringBuilder selection) {
+            return ContentProviderOperation.newDelete(HistoryProvider.Columns.CONTENT_URI)
+                    .withSelection(selection.append(')').toString(), null)
+                    .build();
+        }
+    }
+
+    /**
+     * Deletes the entries or visits matching a selection in chunks, each a transaction
+     * of its own, reporting the progress. The change is notified once at the end.
+     * The activity is only weakly referenced, the deletion outlives it if needed.
+     */
+    private static class DeleteHistoryRangeTask extends AsyncTask<Void, Integer, Void> {
+        private final ContentResolver contentResolver;
+        private final WeakReference<HistoryActivity> activityRef;
+        private final Uri uri;
+        private final String selection;
+        private final String[] selectionArgs;
+
+        DeleteHistoryRangeTask(HistoryActivity activity, Uri uri, String selection,
+                               String[] selectionArgs) {
+            this.contentResolver = activity.getContentResolver();
+            this.activityRef = new WeakReference<>(activity);
+            this.uri = uri;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+        }
+
+        @Override
+        protected Void doInBackground(Void... voids) {
+            int total = 0;
+            // The visits, a few entries without any may be deleted on top of them
+            try (Cursor cursor = contentResolver.query(uri,
+                    new String[]{"COUNT(*)"}, selection, selectionArgs, null)) {
+                if (cursor != null && cursor.moveToFirst()) {
+                    total = cursor.getInt(0);
+                }
+            }
+            Uri chunkUri = uri.buildUpon()
+                    .appendQueryParameter(HistoryProvider.Columns.QUERY_PARAMETER_LIMIT,
+                            String.valueOf(DELETE_CHUNK_SIZE))
+                    .appendQueryParameter(HistoryProvider.Columns.QUERY_PARAMETER_NOTIFY,
+                            String.valueOf(false))
+                    .build();
+            int deleted = 0;
+            int count;
+            do {
+                count = contentResolver.delete(chunkUri, selection, selectionArgs);
+                deleted += count;
+                publishProgress(deleted, Math.max(deleted, total));
+            } while (count == DELETE_CHUNK_SIZE);
+
+            if (deleted > 0) {
+                contentResolver.notifyChange(HistoryProvider.Columns.CONTENT_URI, null);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            HistoryActivity activity = getActivity();
+            ProgressBar progress = activity != null && activity.mDeletingDialog != null
+                    ? activity.mDeletingDialog.findViewById(R.id.history_deleting_progress)
+                    : null;
+            if (progress != null) {
+                progress.setIndeterminate(false);
+                progress.setMax(values[1]);
+                progress.setProgress(values[0]);
+            }
+        }
+
         @Override
         protected void onPostExecute(Void v) {
-            new Handler().postDelayed(dialog::dismiss, 1000);
+            HistoryActivity activity = getActivity();
+            if (activity != null && activity.mDeletingDialog != null) {
+                activity.mDeletingDialog.dismiss();
+                activity.mDeletingDialog = null;
+            }
+        }
+
+        /**
+         * @return the activity, null once its window is going away.
+         */
+        @Nullable
+        private HistoryActivity getActivity() {
+            HistoryActivity activity = activityRef.get();
+            if (activity == null || activity.isFinishing() || activity.isDestroyed()) {
+                return null;
+            }
+            return activity;
         }
     }
 }
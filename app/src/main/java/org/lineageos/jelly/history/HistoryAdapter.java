@@ -16,85 +16,282 @@
 package org.lineageos.jelly.history;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.provider.BaseColumns;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.lineageos.jelly.R;
+import org.lineageos.jelly.utils.UiUtils;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
-class HistoryAdapter extends RecyclerView.Adapter<HistoryHolder> {
-    private final Context mContext;
-    private final DateFormat mHistoryDateFormat;
-    private Cursor mCursor;
-
-    private int mIdColumnIndex;
-    private int mTitleColumnIndex;
-    private int mUrlColumnIndex;
-    private int mTimestampColumnIndex;
+class HistoryAdapter extends RecyclerView.Adapter<HistoryHolder>
+        implements HistoryPagedSource.Callback, HistoryHolder.OnItemClickListener {
+    private final HistoryPagedSource mSource;
+    // Background of the rows, by UiUtils.getPositionInTime()
+    private final int[] mTimeColors;
+    private final int mSelectedColor;
+    private final Set<Long> mSelectedIds = new HashSet<>();
+    private SelectionListener mSelectionListener;
+    // When not null, the results of a search are shown instead of the whole history
+    private List<HistoryItem> mSearchResults;
+    private RecyclerView mRecyclerView;
 
     HistoryAdapter(Context context) {
-        mContext = context;
-        mHistoryDateFormat = new SimpleDateFormat(context.getString(R.string.history_date_format),
-                Locale.getDefault());
+        mTimeColors = new int[]{
+                ContextCompat.getColor(context, R.color.history_last_hour),
+                ContextCompat.getColor(context, R.color.history_today),
+                ContextCompat.getColor(context, R.color.history_this_week),
+                ContextCompat.getColor(context, R.color.history_this_month),
+                ContextCompat.getColor(context, R.color.history_earlier),
+        };
+        mSelectedColor = ContextCompat.getColor(context, R.color.history_selected);
+        mSource = new HistoryPagedSource(context, this);
         setHasStableIds(true);
+        mSource.reload();
+    }
+
+    interface SelectionListener {
+        void onSelectionChanged(int count);
+    }
+
+    void close() {
+        mSource.close();
+    }
+
+    void setSelectionListener(@Nullable SelectionListener listener) {
+        mSelectionListener = listener;
+    }
+
+    /**
+     * @return the ids of the selected entries, a copy.
+     */
+    @NonNull
+    Set<Long> getSelectedIds() {
+        return new HashSet<>(mSelectedIds);
     }
 
-    void swapCursor(Cursor cursor) {
-        if (cursor == mCursor) {
+    void clearSelection() {
+        if (mSelectedIds.isEmpty()) {
             return;
         }
-        if (mCursor != null) {
-            mCursor.close();
+        mSelectedIds.clear();
+        notifyItemRangeChanged(0, getItemCount());
+        onSelectionChanged();
+    }
+
+    /**
+     * @return the sections of the history, none while search results are shown.
+     */
+    @NonNull
+    List<HistoryPagedSource.Section> getSections() {
+        return mSearchResults != null
+                ? Collections.emptyList() : mSource.getSections();
+    }
+
+    @Nullable
+    HistoryPagedSource.Section getSectionAt(int position) {
+        return mSearchResults != null ? null : mSource.getSectionAt(position);
+    }
+
+    /**
+     * Show the given search results, or the whole history again if null.
+     */
+    void setSearchResults(@Nullable List<HistoryItem> results) {
+        if (results == null && mSearchResults == null) {
+            return;
         }
-        mCursor = cursor;
-        if (mCursor != null) {
-            mIdColumnIndex = cursor.getColumnIndexOrThrow(BaseColumns._ID);
-            mTitleColumnIndex = cursor.getColumnIndexOrThrow(HistoryProvider.Columns.TITLE);
-            mUrlColumnIndex = cursor.getColumnIndexOrThrow(HistoryProvider.Columns.URL);
-            mTimestampColumnIndex = cursor.getColumnIndexOrThrow(HistoryProvider.Columns.TIMESTAMP);
+        mSearchResults = null;
+        if (results != null) {
+            mSearchResults = new ArrayList<>(results.size());
+            for (HistoryItem item : results) {
+                if (!mSource.isHidden(item.id)) {
+                    mSearchResults.add(item);
+                }
+            }
         }
         notifyDataSetChanged();
+        onSectionsChanged();
+    }
+
+    /**
+     * Remove an entry from the list at once, while its deletion can still be undone.
+     */
+    void hide(@NonNull HistoryItem item) {
+        if (mSelectedIds.remove(item.id)) {
+            onSelectionChanged();
+        }
+        mSource.hide(item);
+        if (mSearchResults != null) {
+            int position = mSearchResults.indexOf(item);
+            if (position >= 0) {
+                mSearchResults.remove(position);
+                notifyItemRemoved(position);
+            }
+        }
+    }
+
+    /**
+     * Remove entries from the list by id, before they were ever shown.
+     */
+    void hide(@NonNull Collection<Long> ids) {
+        if (mSelectedIds.removeAll(ids)) {
+            onSelectionChanged();
+        }
+        mSource.hide(ids);
+    }
+
+    /**
+     * Show entries hidden by id again.
+     */
+    void unhide(@NonNull Collection<Long> ids) {
+        mSource.unhide(ids);
+    }
+
+    /**
+     * Show a hidden entry again. Search results must be searched again to include it.
+     */
+    void unhide(@NonNull HistoryItem item) {
+        mSource.unhide(item);
+    }
+
+    @Override
+    public void onCountChanged(int count) {
+        if (mSearchResults == null) {
+            notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    public void onPageLoaded(int start, int count) {
+        if (mSearchResults == null) {
+            notifyItemRangeChanged(start, count);
+        }
+    }
+
+    @Override
+    public boolean onItemClick(int position) {
+        // Once something is selected, clicks change the selection
+        if (mSelectedIds.isEmpty()) {
+            return false;
+        }
+        toggleSelection(position);
+        return true;
+    }
+
+    @Override
+    public boolean onItemLongClick(int position) {
+        toggleSelection(position);
+        return true;
+    }
+
+    private void toggleSelection(int position) {
+        HistoryItem item = position != RecyclerView.NO_POSITION ? getItem(position) : null;
+        if (item == null) {
+            return;
+        }
+        if (!mSelectedIds.remove(item.id)) {
+            mSelectedIds.add(item.id);
+        }
+        notifyItemChanged(position);
+        onSelectionChanged();
+    }
+
+    private void onSelectionChanged() {
+        if (mSelectionListener != null) {
+            mSelectionListener.onSelectionChanged(mSelectedIds.size());
+        }
+    }
+
+    @Override
+    public void onSectionsChanged() {
+        // The headers are drawn by a decoration, make it place them again
+        if (mRecyclerView != null) {
+            mRecyclerView.invalidateItemDecorations();
+        }
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+        if (mSearchResults == null) {
+            notifyItemRangeInserted(position, count);
+        }
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        if (mSearchResults == null) {
+            notifyItemRangeRemoved(position, count);
+        }
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        if (mSearchResults == null) {
+            notifyItemMoved(fromPosition, toPosition);
+        }
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+        if (mSearchResults == null) {
+            notifyItemRangeChanged(position, count, payload);
+        }
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        mRecyclerView = null;
     }
 
     @NonNull
     @Override
     public HistoryHolder onCreateViewHolder(ViewGroup parent, int type) {
         return new HistoryHolder(LayoutInflater.from(parent.getContext())
-                .inflate(R.layout.item_history, parent, false));
+                .inflate(R.layout.item_history, parent, false), this);
     }
 
     @Override
     public void onBindViewHolder(@NonNull HistoryHolder holder, int position) {
-        Cursor cursor = this.mCursor;
-        if (cursor == null) return;
-        if (!cursor.moveToPosition(position)) {
+        HistoryItem item = getItem(position);
+        if (item == null) {
+            holder.bindPlaceholder();
             return;
         }
-        long timestamp = cursor.getLong(mTimestampColumnIndex);
-        String summary = mHistoryDateFormat.format(new Date(timestamp));
-        String title = cursor.getString(mTitleColumnIndex);
-        String url = cursor.getString(mUrlColumnIndex);
-        holder.bind(mContext, title, url, summary, timestamp);
+        // Nothing to look up, and box, unless something is selected
+        boolean selected = !mSelectedIds.isEmpty() && mSelectedIds.contains(item.id);
+        holder.bind(item, selected
+                ? mSelectedColor : mTimeColors[UiUtils.getPositionInTime(item.timestamp)]);
     }
 
     @Override
     public int getItemCount() {
-        return mCursor != null ? mCursor.getCount() : 0;
+        return mSearchResults != null ? mSearchResults.size() : mSource.getCount();
     }
 
     @Override
     public long getItemId(int position) {
-        Cursor cursor = this.mCursor;
-        if (cursor == null) return -1;
-        return cursor.moveToPosition(position) ? cursor.getLong(mIdColumnIndex) : -1;
+        HistoryItem item = getItem(position);
+        // Placeholders get an id of their own, row ids are positive
+        return item != null ? item.id : -1 - position;
+    }
+
+    @Nullable
+    HistoryItem getItem(int position) {
+        return mSearchResults != null ? mSearchResults.get(position) : mSource.get(position);
     }
 }
@@ -15,16 +15,10 @@
  */
 package org.lineageos.jelly.history;
 
-import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
-import android.database.DatabaseUtils;
 import android.graphics.Canvas;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
-import android.net.Uri;
 import android.view.View;
 
 import androidx.annotation.NonNull;
@@ -35,7 +29,6 @@ import androidx.recyclerview.widget.RecyclerView;
 import org.lineageos.jelly.R;
 
 class HistoryCallBack extends ItemTouchHelper.SimpleCallback {
-    private final ContentResolver mResolver;
     private final Drawable mBackground;
     private final Drawable mDelete;
     private final OnDeleteListener mDeleteListener;
@@ -43,7 +36,6 @@ class HistoryCallBack extends ItemTouchHelper.SimpleCallback {
 
     HistoryCallBack(Context context, OnDeleteListener deleteListener) {
         super(0, ItemTouchHelper.LEFT);
-        mResolver = context.getContentResolver();
         mBackground = new ColorDrawable(ContextCompat.getColor(context, R.color.colorDelete));
         mDelete = ContextCompat.getDrawable(context, R.drawable.ic_delete_action);
         mMargin = (int) context.getResources().getDimension(R.dimen.delete_margin);
@@ -58,21 +50,20 @@ class HistoryCallBack extends ItemTouchHelper.SimpleCallback {
     }
 
     @Override
-    public void onSwiped(RecyclerView.ViewHolder holder, int swipeDir) {
-        Uri uri = ContentUris.withAppendedId(HistoryProvider.Columns.CONTENT_URI,
-                holder.getItemId());
-        ContentValues values = null;
-        Cursor cursor = mResolver.query(uri, null, null, null, null);
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                values = new ContentValues();
-                DatabaseUtils.cursorRowToContentValues(cursor, values);
-            }
-            cursor.close();
+    public int getSwipeDirs(@NonNull RecyclerView recyclerView,
+                            @NonNull RecyclerView.ViewHolder viewHolder) {
+        // Entries that are still loading can't be deleted
+        if (viewHolder.getItemId() < 0) {
+            return 0;
         }
-        mResolver.delete(uri, null, null);
-        if (values != null && mDeleteListener != null) {
-            mDeleteListener.onItemDeleted(values);
+        return super.getSwipeDirs(recyclerView, viewHolder);
+    }
+
+    @Override
+    public void onSwiped(RecyclerView.ViewHolder holder, int swipeDir) {
+        int position = holder.getAdapterPosition();
+        if (position != RecyclerView.NO_POSITION && mDeleteListener != null) {
+            mDeleteListener.onItemSwiped(position);
         }
     }
 
@@ -102,6 +93,6 @@ class HistoryCallBack extends ItemTouchHelper.SimpleCallback {
     }
 
     public interface OnDeleteListener {
-        void onItemDeleted(ContentValues data);
+        void onItemSwiped(int position);
     }
 }
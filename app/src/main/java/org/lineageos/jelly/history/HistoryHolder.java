@@ -17,63 +17,73 @@ package org.lineageos.jelly.history;
 
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.drawable.ColorDrawable;
+import android.graphics.Color;
 import android.net.Uri;
-import android.text.TextUtils;
 import android.view.View;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
-import androidx.core.content.ContextCompat;
+import androidx.annotation.ColorInt;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.lineageos.jelly.MainActivity;
 import org.lineageos.jelly.R;
-import org.lineageos.jelly.utils.UiUtils;
 
 class HistoryHolder extends RecyclerView.ViewHolder {
 
     private final LinearLayout mRootLayout;
     private final TextView mTitle;
     private final TextView mSummary;
+    // Null while a placeholder is shown
+    private String mUrl;
 
-    HistoryHolder(View view) {
+    interface OnItemClickListener {
+        /**
+         * @return whether the click was handled, otherwise the page is opened.
+         */
+        boolean onItemClick(int position);
+
+        boolean onItemLongClick(int position);
+    }
+
+    HistoryHolder(View view, OnItemClickListener listener) {
         super(view);
         mRootLayout = view.findViewById(R.id.row_history_layout);
         mTitle = view.findViewById(R.id.row_history_title);
         mSummary = view.findViewById(R.id.row_history_summary);
-    }
-
-    void bind(final Context context, String title, String url, String summary, long timestamp) {
-        final String historyTitle = TextUtils.isEmpty(title) ? url.split("/")[2] : title;
-        mTitle.setText(historyTitle);
-        mSummary.setText(summary);
 
         mRootLayout.setOnClickListener(v -> {
+            if (mUrl == null || listener.onItemClick(getAdapterPosition())) {
+                return;
+            }
+            Context context = v.getContext();
             Intent intent = new Intent(context, MainActivity.class);
-            intent.setData(Uri.parse(url));
+            intent.setData(Uri.parse(mUrl));
             context.startActivity(intent);
         });
+        mRootLayout.setOnLongClickListener(v ->
+                mUrl != null && listener.onItemLongClick(getAdapterPosition()));
+    }
+
+    /**
+     * Nothing is allocated here, this runs for every row scrolled into view.
+     */
+    void bind(HistoryItem item, @ColorInt int background) {
+        mUrl = item.url;
+        mTitle.setText(item.displayTitle);
+        mSummary.setText(item.summary);
+        // Updates the color of the existing background rather than replacing it
+        mRootLayout.setBackgroundColor(background);
+    }
 
-        int background;
-        switch (UiUtils.getPositionInTime(timestamp)) {
-            case 0:
-                background = R.color.history_last_hour;
-                break;
-            case 1:
-                background = R.color.history_today;
-                break;
-            case 2:
-                background = R.color.history_this_week;
-                break;
-            case 3:
-                background = R.color.history_this_month;
-                break;
-            default:
-                background = R.color.history_earlier;
-                break;
-        }
-        mRootLayout.setBackground(new ColorDrawable(ContextCompat.getColor(context, background)));
+    /**
+     * Show an empty row while the entry is being loaded.
+     */
+    void bindPlaceholder() {
+        mUrl = null;
+        mTitle.setText(null);
+        mSummary.setText(null);
+        mRootLayout.setBackgroundColor(Color.TRANSPARENT);
     }
 
 }
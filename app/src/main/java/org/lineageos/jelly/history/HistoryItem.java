@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.jelly.history;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import org.lineageos.jelly.utils.UrlUtils;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+/**
+ * Immutable snapshot of a row of the history table, with the strings to
+ * display computed once when it's loaded rather than on every bind.
+ */
+class HistoryItem {
+    final long id;
+    final String title;
+    final String url;
+    final long timestamp;
+    final String displayTitle;
+    final String summary;
+
+    private HistoryItem(long id, String title, String url, long timestamp, String summary) {
+        this.id = id;
+        this.title = title;
+        this.url = url;
+        this.timestamp = timestamp;
+        this.displayTitle = TextUtils.isEmpty(title) && url != null
+                ? UrlUtils.getDisplayHost(url) : title;
+        this.summary = summary;
+    }
+
+    /**
+     * @param cursor positioned on a row with the id, title, url and timestamp
+     *               columns, in this order.
+     * @param format used to format the timestamp, not shared between threads.
+     */
+    static HistoryItem fromCursor(Cursor cursor, DateFormat format) {
+        long timestamp = cursor.getLong(3);
+        return new HistoryItem(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                timestamp, format.format(new Date(timestamp)));
+    }
+
+    boolean hasSameContents(HistoryItem other) {
+        return timestamp == other.timestamp && TextUtils.equals(title, other.title) &&
+                TextUtils.equals(url, other.url);
+    }
+}
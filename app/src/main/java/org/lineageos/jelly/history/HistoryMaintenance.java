@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.jelly.history;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteException;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.preference.PreferenceManager;
+
+import org.lineageos.jelly.utils.PrefsUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Applies the history retention policy and keeps the database compact.
+ * Runs at most once a day, in the background.
+ */
+public final class HistoryMaintenance {
+    private static final String TAG = "HistoryMaintenance";
+    private static final String KEY_LAST_RUN = "history_maintenance_last_run";
+    private static final long INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+
+    // The app may be left again before the previous run is over
+    private static final AtomicBoolean sRunning = new AtomicBoolean();
+
+    private HistoryMaintenance() {
+    }
+
+    public static void runIfDue(@NonNull Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long now = System.currentTimeMillis();
+        long lastRun = prefs.getLong(KEY_LAST_RUN, 0);
+        // A clock set back in time shouldn't postpone it forever
+        if (lastRun <= now && now - lastRun < INTERVAL_MS) {
+            return;
+        }
+        if (!sRunning.compareAndSet(false, true)) {
+            return;
+        }
+
+        Context appContext = context.getApplicationContext();
+        long maxAge = TimeUnit.DAYS.toMillis(PrefsUtils.getHistoryMaxAge(appContext));
+        int maxEntries = PrefsUtils.getHistoryMaxEntries(appContext);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            Bundle result;
+            try {
+                result = HistoryProvider.maintain(appContext.getContentResolver(),
+                        maxAge, maxEntries);
+            } catch (SQLiteException e) {
+                // E.g. a full disk or a locked database, try again next time
+                Log.e(TAG, "Unable to maintain the history", e);
+                return;
+            } finally {
+                sRunning.set(false);
+            }
+            prefs.edit().putLong(KEY_LAST_RUN, now).apply();
+            if (result != null) {
+                Log.d(TAG, "Deleted " + result.getInt(HistoryProvider.RESULT_DELETED) +
+                        " entries, size " + result.getLong(HistoryProvider.RESULT_SIZE_BEFORE) +
+                        "B -> " + result.getLong(HistoryProvider.RESULT_SIZE_AFTER) + "B");
+            }
+        });
+    }
+}
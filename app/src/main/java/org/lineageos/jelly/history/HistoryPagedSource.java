@@ -0,0 +1,614 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.jelly.history;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.BaseColumns;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import org.lineageos.jelly.R;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the history in fixed-size pages, most recent first, so that only
+ * the part of a very large history the user is looking at is in memory.
+ * A page is normally found by seeking past the last entry of the previous
+ * one on the timestamp index; OFFSET is only used when jumping to a page
+ * whose predecessor isn't loaded. When the history changes, the pages in
+ * memory are reloaded and compared to the previous ones in the background,
+ * so that only the entries that actually changed are updated.
+ * The entries are also split in sections by age, counted with a single
+ * aggregate query, so that any section can be jumped to without loading
+ * the ones before it.
+ * All the methods must be called on the UI thread.
+ */
+class HistoryPagedSource {
+    static final int PAGE_SIZE = 100;
+    // Load the next page when getting this close to the end of the current one
+    private static final int PREFETCH_DISTANCE = 30;
+    private static final int MAX_RESIDENT_PAGES = 8;
+
+    private static final String[] PROJECTION = new String[]{
+            BaseColumns._ID,
+            HistoryProvider.Columns.TITLE,
+            HistoryProvider.Columns.URL,
+            HistoryProvider.Columns.TIMESTAMP,
+    };
+    private static final String[] SECTIONS_PROJECTION = new String[]{
+            HistoryProvider.Columns.SECTION,
+            HistoryProvider.Columns._COUNT,
+    };
+    private static final String ORDER = HistoryProvider.Columns.TIMESTAMP + " DESC, " +
+            BaseColumns._ID + " DESC";
+    // Written so that the first term is a range on the timestamp index
+    private static final String KEYSET_SELECTION = HistoryProvider.Columns.TIMESTAMP +
+            " <= ? AND (" + HistoryProvider.Columns.TIMESTAMP + " < ? OR " +
+            BaseColumns._ID + " < ?)";
+
+    private final ContentResolver mResolver;
+    // Only used by the executor thread
+    private final DateFormat mDateFormat;
+    private final DateFormat mMonthFormat;
+    private final String[] mRecentSectionLabels;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final ContentObserver mObserver;
+
+    private final SparseArray<List<HistoryItem>> mPages = new SparseArray<>();
+    private final Set<Integer> mLoadingPages = new HashSet<>();
+    private int mCount;
+    private List<Section> mSections = Collections.emptyList();
+    // Bumped on every reload, so that pages of an outdated snapshot are dropped
+    private int mGeneration;
+    private boolean mClosed;
+    // While reloading, pages are loaded once the new snapshot is in place
+    private boolean mReloading;
+    private final Set<Integer> mDeferredPages = new HashSet<>();
+    // Left out of the snapshot, e.g. while their deletion can be undone
+    private final Set<Long> mHiddenIds = new HashSet<>();
+
+    /**
+     * Receives the changes of the reloaded entries through the
+     * {@link ListUpdateCallback} methods.
+     */
+    interface Callback extends ListUpdateCallback {
+        /**
+         * Anything may have changed, rebind everything.
+         */
+        void onCountChanged(int count);
+
+        void onPageLoaded(int start, int count);
+
+        void onSectionsChanged();
+    }
+
+    static final class Section {
+        final String label;
+        // Of the first entry
+        final int position;
+        final int count;
+
+        Section(String label, int position, int count) {
+            this.label = label;
+            this.position = position;
+            this.count = count;
+        }
+    }
+
+    HistoryPagedSource(@NonNull Context context, @NonNull Callback callback) {
+        mResolver = context.getContentResolver();
+        mDateFormat = new SimpleDateFormat(context.getString(R.string.history_date_format),
+                Locale.getDefault());
+        mMonthFormat = new SimpleDateFormat(android.text.format.DateFormat.getBestDateTimePattern(
+                Locale.getDefault(), "yyyyMMMM"), Locale.getDefault());
+        mRecentSectionLabels = new String[]{
+                context.getString(R.string.history_section_last_hour),
+                context.getString(R.string.history_section_today),
+                context.getString(R.string.history_section_this_week),
+                context.getString(R.string.history_section_this_month),
+        };
+        mCallback = callback;
+        mObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                reload();
+            }
+        };
+        mResolver.registerContentObserver(HistoryProvider.Columns.CONTENT_URI, true, mObserver);
+    }
+
+    void close() {
+        mClosed = true;
+        mResolver.unregisterContentObserver(mObserver);
+        mExecutor.shutdownNow();
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the sections, most recent first. The list is not modified afterwards.
+     */
+    @NonNull
+    List<Section> getSections() {
+        return mSections;
+    }
+
+    /**
+     * @return the section of the entry at the given position, null if there's none.
+     */
+    @Nullable
+    Section getSectionAt(int position) {
+        int low = 0;
+        int high = mSections.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Section section = mSections.get(mid);
+            if (position < section.position) {
+                high = mid - 1;
+            } else if (position >= section.position + section.count) {
+                low = mid + 1;
+            } else {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Load the snapshot again, e.g. because the history changed.
+     * The pages currently in memory are swapped at once, so that no
+     * placeholder shows up where entries were already displayed.
+     */
+    void reload() {
+        if (mClosed) {
+            return;
+        }
+        int generation = ++mGeneration;
+        mLoadingPages.clear();
+        mReloading = true;
+        int oldCount = mCount;
+        int[] resident = new int[mPages.size()];
+        for (int i = 0; i < resident.length; i++) {
+            resident[i] = mPages.keyAt(i);
+        }
+        // Only a contiguous window can be diffed, otherwise everything is rebound
+        List<HistoryItem> oldWindow = isContiguous(resident) ? concat(mPages) : null;
+        int windowStart = resident.length > 0 ? resident[0] * PAGE_SIZE : 0;
+        String hidden = getHiddenSelection();
+
+        mExecutor.execute(() -> {
+            List<Section> sections = querySections(hidden);
+            int count = 0;
+            for (Section section : sections) {
+                count += section.count;
+            }
+            SparseArray<List<HistoryItem>> pages = new SparseArray<>();
+            HistoryItem after = null;
+            for (int page : resident) {
+                if (page * PAGE_SIZE >= count) {
+                    break;
+                }
+                // Pages are sorted, reuse the keyset when they're contiguous
+                List<HistoryItem> items = queryPage(page,
+                        pages.get(page - 1) != null ? after : null, hidden);
+                pages.put(page, items);
+                after = items.isEmpty() ? null : items.get(items.size() - 1);
+            }
+
+            List<HistoryItem> newWindow = oldWindow != null ? concat(pages) : null;
+            DiffUtil.DiffResult diff = oldWindow != null
+                    ? DiffUtil.calculateDiff(new WindowDiff(oldWindow, newWindow), false)
+                    : null;
+
+            mHandler.post(() -> {
+                if (mClosed || generation != mGeneration) {
+                    return;
+                }
+                mReloading = false;
+                mPages.clear();
+                for (int i = 0; i < pages.size(); i++) {
+                    mPages.put(pages.keyAt(i), pages.valueAt(i));
+                }
+                mCount = count;
+                mSections = sections;
+                mCallback.onSectionsChanged();
+
+                if (diff == null) {
+                    mCallback.onCountChanged(count);
+                } else {
+                    dispatchWindowChanges(diff, windowStart);
+                    // The rest of the change in size happened past the window
+                    int windowEnd = windowStart + newWindow.size();
+                    int remaining = count - oldCount - (newWindow.size() - oldWindow.size());
+                    if (remaining > 0) {
+                        mCallback.onInserted(windowEnd, remaining);
+                    } else if (remaining < 0) {
+                        mCallback.onRemoved(windowEnd, -remaining);
+                    }
+                }
+
+                for (int page : mDeferredPages) {
+                    loadPage(page);
+                }
+                mDeferredPages.clear();
+            });
+        });
+    }
+
+    boolean isHidden(long id) {
+        return mHiddenIds.contains(id);
+    }
+
+    /**
+     * Take entries out of the list by id alone, e.g. the pending deletions
+     * of a previous instance. The pages are reloaded without them.
+     */
+    void hide(@NonNull Collection<Long> ids) {
+        if (!mClosed && mHiddenIds.addAll(ids)) {
+            reload();
+        }
+    }
+
+    /**
+     * Show entries hidden by id again, the pages are reloaded with them.
+     */
+    void unhide(@NonNull Collection<Long> ids) {
+        if (!mClosed && mHiddenIds.removeAll(ids)) {
+            reload();
+        }
+    }
+
+    /**
+     * Take an entry out of the list at once. The pages are then reloaded
+     * without it, to fill the gap it leaves.
+     */
+    void hide(@NonNull HistoryItem item) {
+        if (mClosed || !mHiddenIds.add(item.id)) {
+            return;
+        }
+        List<HistoryItem> window = getWindow();
+        if (window != null) {
+            int windowStart = mPages.size() > 0 ? mPages.keyAt(0) * PAGE_SIZE : 0;
+            for (int position = 0; position < window.size(); position++) {
+                if (window.get(position).id == item.id) {
+                    window.remove(position);
+                    setWindow(window);
+                    mCount--;
+                    resizeSectionAt(windowStart + position, -1);
+                    mCallback.onRemoved(windowStart + position, 1);
+                    break;
+                }
+            }
+        }
+        reload();
+    }
+
+    /**
+     * Put a hidden entry back where it was, without querying it again.
+     */
+    void unhide(@NonNull HistoryItem item) {
+        if (mClosed || !mHiddenIds.remove(item.id)) {
+            return;
+        }
+        List<HistoryItem> window = getWindow();
+        if (window != null) {
+            int windowStart = mPages.size() > 0 ? mPages.keyAt(0) * PAGE_SIZE : 0;
+            int position = 0;
+            while (position < window.size() && isBefore(window.get(position), item)) {
+                position++;
+            }
+            // Otherwise its place is in a page that isn't loaded, the reload takes care of it
+            boolean inWindow = (position > 0 || windowStart == 0) &&
+                    (position < window.size() || windowStart + window.size() == mCount);
+            if (inWindow) {
+                window.add(position, item);
+                setWindow(window);
+                mCount++;
+                resizeSectionAt(windowStart + position, 1);
+                mCallback.onInserted(windowStart + position, 1);
+            }
+        }
+        reload();
+    }
+
+    /**
+     * Keep the sections in line with an entry removed or added locally,
+     * until the reload counts them again. Meanwhile, an entry put back at the
+     * edge of a section may be counted in the next one.
+     */
+    private void resizeSectionAt(int position, int delta) {
+        Section target = getSectionAt(position);
+        if (target == null && delta > 0 && !mSections.isEmpty()) {
+            // Added after the last entry
+            target = mSections.get(mSections.size() - 1);
+        }
+        if (target == null) {
+            return;
+        }
+        List<Section> sections = new ArrayList<>(mSections.size());
+        for (Section section : mSections) {
+            if (section == target) {
+                section = new Section(section.label, section.position, section.count + delta);
+            } else if (section.position > target.position) {
+                section = new Section(section.label, section.position + delta, section.count);
+            }
+            if (section.count > 0) {
+                sections.add(section);
+            }
+        }
+        mSections = sections;
+        mCallback.onSectionsChanged();
+    }
+
+    private static boolean isBefore(@NonNull HistoryItem a, @NonNull HistoryItem b) {
+        return a.timestamp > b.timestamp || (a.timestamp == b.timestamp && a.id > b.id);
+    }
+
+    /**
+     * @return the loaded entries if their pages are contiguous, null otherwise.
+     */
+    @Nullable
+    private List<HistoryItem> getWindow() {
+        int[] resident = new int[mPages.size()];
+        for (int i = 0; i < resident.length; i++) {
+            resident[i] = mPages.keyAt(i);
+        }
+        return isContiguous(resident) ? concat(mPages) : null;
+    }
+
+    /**
+     * Split the entries in pages again, from the first loaded one. Until the
+     * next reload, the last page may miss entries, which show as placeholders.
+     */
+    private void setWindow(@NonNull List<HistoryItem> window) {
+        int firstPage = mPages.size() > 0 ? mPages.keyAt(0) : 0;
+        mPages.clear();
+        for (int start = 0, page = firstPage; start < window.size();
+             start += PAGE_SIZE, page++) {
+            int end = Math.min(window.size(), start + PAGE_SIZE);
+            mPages.put(page, new ArrayList<>(window.subList(start, end)));
+        }
+    }
+
+    @Nullable
+    private String getHiddenSelection() {
+        if (mHiddenIds.isEmpty()) {
+            return null;
+        }
+        StringBuilder selection = new StringBuilder(BaseColumns._ID + " NOT IN (");
+        for (long id : mHiddenIds) {
+            selection.append(id).append(',');
+        }
+        selection.setCharAt(selection.length() - 1, ')');
+        return selection.toString();
+    }
+
+    private void dispatchWindowChanges(@NonNull DiffUtil.DiffResult diff, int windowStart) {
+        diff.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                mCallback.onInserted(windowStart + position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                mCallback.onRemoved(windowStart + position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                mCallback.onMoved(windowStart + fromPosition, windowStart + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                mCallback.onChanged(windowStart + position, count, payload);
+            }
+        });
+    }
+
+    private static boolean isContiguous(@NonNull int[] pages) {
+        for (int i = 1; i < pages.length; i++) {
+            if (pages[i] != pages[i - 1] + 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @NonNull
+    private static List<HistoryItem> concat(@NonNull SparseArray<List<HistoryItem>> pages) {
+        List<HistoryItem> items = new ArrayList<>(pages.size() * PAGE_SIZE);
+        for (int i = 0; i < pages.size(); i++) {
+            items.addAll(pages.valueAt(i));
+        }
+        return items;
+    }
+
+    /**
+     * @return the entry at the given position, or null if its page is not loaded yet.
+     */
+    @Nullable
+    HistoryItem get(int position) {
+        int page = position / PAGE_SIZE;
+        int offset = position % PAGE_SIZE;
+
+        if (offset >= PAGE_SIZE - PREFETCH_DISTANCE) {
+            loadPage(page + 1);
+        } else if (offset < PREFETCH_DISTANCE && page > 0) {
+            loadPage(page - 1);
+        }
+
+        List<HistoryItem> items = mPages.get(page);
+        if (items == null) {
+            loadPage(page);
+            return null;
+        }
+        return offset < items.size() ? items.get(offset) : null;
+    }
+
+    private void loadPage(int page) {
+        if (mClosed || page < 0 || page * PAGE_SIZE >= mCount || mPages.get(page) != null) {
+            return;
+        }
+        if (mReloading) {
+            mDeferredPages.add(page);
+            return;
+        }
+        if (!mLoadingPages.add(page)) {
+            return;
+        }
+
+        List<HistoryItem> previous = mPages.get(page - 1);
+        HistoryItem after = previous != null && !previous.isEmpty()
+                ? previous.get(previous.size() - 1) : null;
+        int generation = mGeneration;
+        String hidden = getHiddenSelection();
+        mExecutor.execute(() -> {
+            List<HistoryItem> items = queryPage(page, after, hidden);
+            mHandler.post(() -> {
+                if (mClosed || generation != mGeneration) {
+                    return;
+                }
+                mLoadingPages.remove(page);
+                mPages.put(page, items);
+                evictPagesFarFrom(page);
+                mCallback.onPageLoaded(page * PAGE_SIZE, items.size());
+            });
+        });
+    }
+
+    private void evictPagesFarFrom(int page) {
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            if (Math.abs(mPages.keyAt(i) - page) > MAX_RESIDENT_PAGES / 2) {
+                mPages.removeAt(i);
+            }
+        }
+    }
+
+    @NonNull
+    private List<Section> querySections(@Nullable String hidden) {
+        List<Section> sections = new ArrayList<>();
+        int position = 0;
+        try (Cursor cursor = mResolver.query(HistoryProvider.Columns.SECTIONS_URI,
+                SECTIONS_PROJECTION, hidden, null, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                int count = cursor.getInt(1);
+                sections.add(new Section(getSectionLabel(cursor.getString(0)), position, count));
+                position += count;
+            }
+        }
+        return sections;
+    }
+
+    @NonNull
+    private String getSectionLabel(@NonNull String section) {
+        // Either the index of a recent one, or the year and month
+        if (section.length() == 1) {
+            return mRecentSectionLabels[section.charAt(0) - '0'];
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(Integer.parseInt(section.substring(0, 4)),
+                Integer.parseInt(section.substring(5, 7)) - 1, 1);
+        return mMonthFormat.format(calendar.getTime());
+    }
+
+    @NonNull
+    private List<HistoryItem> queryPage(int page, @Nullable HistoryItem after,
+                                        @Nullable String hidden) {
+        Uri.Builder uri = HistoryProvider.Columns.CONTENT_URI.buildUpon();
+        String selection = null;
+        String[] selectionArgs = null;
+        if (after != null) {
+            uri.appendQueryParameter(HistoryProvider.Columns.QUERY_PARAMETER_LIMIT,
+                    String.valueOf(PAGE_SIZE));
+            selection = KEYSET_SELECTION;
+            String timestamp = String.valueOf(after.timestamp);
+            selectionArgs = new String[]{timestamp, timestamp, String.valueOf(after.id)};
+        } else {
+            uri.appendQueryParameter(HistoryProvider.Columns.QUERY_PARAMETER_LIMIT,
+                    page * PAGE_SIZE + "," + PAGE_SIZE);
+        }
+        selection = DatabaseUtils.concatenateWhere(selection, hidden);
+
+        List<HistoryItem> items = new ArrayList<>(PAGE_SIZE);
+        try (Cursor cursor = mResolver.query(uri.build(), PROJECTION, selection, selectionArgs,
+                ORDER)) {
+            while (cursor != null && cursor.moveToNext()) {
+                items.add(HistoryItem.fromCursor(cursor, mDateFormat));
+            }
+        }
+        return items;
+    }
+
+    private static class WindowDiff extends DiffUtil.Callback {
+        private final List<HistoryItem> mOld;
+        private final List<HistoryItem> mNew;
+
+        WindowDiff(List<HistoryItem> oldItems, List<HistoryItem> newItems) {
+            mOld = oldItems;
+            mNew = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOld.get(oldPosition).id == mNew.get(newPosition).id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return mOld.get(oldPosition).hasSameContents(mNew.get(newPosition));
+        }
+    }
+}
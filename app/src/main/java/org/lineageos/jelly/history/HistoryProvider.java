@@ -16,57 +16,159 @@
 package org.lineageos.jelly.history;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.provider.BaseColumns;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import org.lineageos.jelly.utils.ExtUtils;
+import org.lineageos.jelly.utils.UiUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class HistoryProvider extends ContentProvider {
     private static final int MATCH_ALL = 0;
     private static final int MATCH_ID = 1;
+    private static final int MATCH_SEARCH = 2;
+    private static final int MATCH_TOP = 3;
+    private static final int MATCH_SECTIONS = 4;
+    private static final int MATCH_VISITS = 5;
     private static final UriMatcher sURIMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+    private static final String METHOD_ADD_OR_UPDATE = "addOrUpdate";
+    private static final String EXTRA_URLS = "urls";
+    private static final String EXTRA_TITLES = "titles";
+    private static final String EXTRA_VISIT_COUNTS = "visit_counts";
+    private static final String EXTRA_VISIT_TIMES = "visit_times";
+    private static final String METHOD_MAINTAIN = "maintain";
+    private static final String EXTRA_MAX_AGE = "max_age";
+    private static final String EXTRA_MAX_ENTRIES = "max_entries";
+    static final String RESULT_DELETED = "deleted";
+    static final String RESULT_SIZE_BEFORE = "size_before";
+    static final String RESULT_SIZE_AFTER = "size_after";
+    // Each chunk is a transaction of its own, short enough not to block readers
+    private static final int DELETE_CHUNK_SIZE = 500;
+    // How many matches are ranked for each search result asked for
+    private static final int SEARCH_POOL_FACTOR = 5;
+    // Visits lose half of their weight every month
+    private static final double FRECENCY_DECAY = Math.log(2) / TimeUnit.DAYS.toMillis(30);
 
     static {
         sURIMatcher.addURI(Columns.AUTHORITY, "history", MATCH_ALL);
         sURIMatcher.addURI(Columns.AUTHORITY, "history/#", MATCH_ID);
+        sURIMatcher.addURI(Columns.AUTHORITY, "history/search", MATCH_SEARCH);
+        sURIMatcher.addURI(Columns.AUTHORITY, "history/top", MATCH_TOP);
+        sURIMatcher.addURI(Columns.AUTHORITY, "history/sections", MATCH_SECTIONS);
+        sURIMatcher.addURI(Columns.AUTHORITY, "history/visits", MATCH_VISITS);
+    }
+
+    private static final HashMap<String, String> sSearchProjectionMap = new HashMap<>();
+
+    static {
+        // Title and url are columns of both tables, read them from the history one
+        for (String column : new String[]{BaseColumns._ID, Columns.TITLE, Columns.URL,
+                Columns.TIMESTAMP}) {
+            sSearchProjectionMap.put(column,
+                    HistoryDbHelper.DB_TABLE_HISTORY + "." + column + " AS " + column);
+        }
     }
 
     private HistoryDbHelper mDbHelper;
 
+    // Not null while the thread applies a batch: whether it changed anything so far
+    private final ThreadLocal<Boolean> mBatchChanged = new ThreadLocal<>();
+
     public static void addOrUpdateItem(ContentResolver resolver, String title, String url) {
-        long existingId = -1;
-        Cursor cursor = resolver.query(Columns.CONTENT_URI, new String[]{BaseColumns._ID},
-                Columns.URL + "=?", new String[]{url}, null);
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                existingId = cursor.getLong(0);
-            }
-            cursor.close();
-        }
+        addOrUpdateItems(resolver, new String[]{title}, new String[]{url});
+    }
 
-        ContentValues values = new ContentValues();
-        values.put(Columns.TITLE, title);
+    /**
+     * Add or update several entries in a single transaction.
+     *
+     * @param titles the titles of the pages, in the same order as the urls.
+     * @param urls   the urls of the pages.
+     */
+    public static void addOrUpdateItems(ContentResolver resolver, String[] titles,
+                                        String[] urls) {
+        addOrUpdateItems(resolver, titles, urls, null, null);
+    }
 
-        if (existingId >= 0) {
-            resolver.update(ContentUris.withAppendedId(Columns.CONTENT_URI, existingId),
-                    values, null, null);
-        } else {
-            values.put(Columns.TIMESTAMP, System.currentTimeMillis());
-            values.put(Columns.URL, url);
-            resolver.insert(Columns.CONTENT_URI, values);
+    /**
+     * Add or update several entries and record their visits in a single transaction.
+     *
+     * @param titles      the titles of the pages, null to leave one unchanged.
+     * @param urls        the urls of the pages.
+     * @param visitCounts the number of visits of each page.
+     * @param visitTimes  the times of the visits, those of the first page come first.
+     */
+    public static void addOrUpdateItems(ContentResolver resolver, String[] titles,
+                                        String[] urls, int[] visitCounts, long[] visitTimes) {
+        Bundle extras = new Bundle();
+        extras.putStringArray(EXTRA_TITLES, titles);
+        extras.putStringArray(EXTRA_URLS, urls);
+        extras.putIntArray(EXTRA_VISIT_COUNTS, visitCounts);
+        extras.putLongArray(EXTRA_VISIT_TIMES, visitTimes);
+        resolver.call(Columns.CONTENT_URI, METHOD_ADD_OR_UPDATE, null, extras);
+    }
+
+    /**
+     * @param frecency the {@link Columns#FRECENCY} of an entry.
+     * @return the sum of the weights of its visits at the given time: a visit
+     * counts for 1 when it happens and half as much every month after that.
+     */
+    public static double getVisitWeight(double frecency, long now) {
+        return Math.exp(frecency - FRECENCY_DECAY * now);
+    }
+
+    /**
+     * The frecency is the sum over the visits of exp(-decay * age). All the
+     * scores can be multiplied by exp(decay * now) without changing their
+     * order, so log(sum(exp(decay * visit time))) is stored instead: it only
+     * changes when a visit is added, never because time passes.
+     */
+    static double addVisit(double frecency, int visitCount, long time) {
+        double visit = FRECENCY_DECAY * time;
+        if (visitCount == 0) {
+            return visit;
         }
+        // log(exp(frecency) + exp(visit)), without overflowing
+        return Math.max(frecency, visit) + Math.log1p(Math.exp(-Math.abs(frecency - visit)));
+    }
+
+    /**
+     * Delete the entries not visited for too long or too many, then give the freed
+     * space back to the file system and refresh the query planner statistics.
+     *
+     * @param maxAge     in milliseconds, 0 to keep entries of any age.
+     * @param maxEntries the number of most recently visited entries to keep, 0 for no limit.
+     * @return the number of deleted entries and the size of the database before and after.
+     */
+    static Bundle maintain(ContentResolver resolver, long maxAge, int maxEntries) {
+        Bundle extras = new Bundle();
+        extras.putLong(EXTRA_MAX_AGE, maxAge);
+        extras.putInt(EXTRA_MAX_ENTRIES, maxEntries);
+        return resolver.call(Columns.CONTENT_URI, METHOD_MAINTAIN, null, extras);
     }
 
     @Override
@@ -80,10 +182,20 @@ public class HistoryProvider extends ContentProvider {
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection,
                         @Nullable String selection, @Nullable String[] selectionArgs,
                         @Nullable String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection,
+                        @Nullable String selection, @Nullable String[] selectionArgs,
+                        @Nullable String sortOrder,
+                        @Nullable CancellationSignal cancellationSignal) {
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
         int match = sURIMatcher.match(uri);
 
         qb.setTables(HistoryDbHelper.DB_TABLE_HISTORY);
+        String groupBy = null;
 
         switch (match) {
             case MATCH_ALL:
@@ -91,18 +203,377 @@ public class HistoryProvider extends ContentProvider {
             case MATCH_ID:
                 qb.appendWhere(BaseColumns._ID + " = " + uri.getLastPathSegment());
                 break;
+            case MATCH_SEARCH:
+                qb.setTables(HistoryDbHelper.DB_TABLE_HISTORY + " JOIN " +
+                        HistoryDbHelper.DB_TABLE_FTS + " ON " +
+                        HistoryDbHelper.DB_TABLE_HISTORY + "." + BaseColumns._ID + " = " +
+                        HistoryDbHelper.DB_TABLE_FTS + ".docid");
+                qb.setProjectionMap(sSearchProjectionMap);
+                List<String> tokens = getSearchTokens(uri.getQueryParameter(
+                        Columns.QUERY_PARAMETER_SEARCH));
+                int pool = getSearchPool(uri.getQueryParameter(Columns.QUERY_PARAMETER_LIMIT));
+                if (tokens.isEmpty()) {
+                    // Nothing to look for, don't match anything
+                    qb.appendWhere("0");
+                } else if (sortOrder == null && pool > 0) {
+                    // Only score the most frecent matches, a common word
+                    // matches too many entries to run the LIKEs on all of them
+                    qb.setTables(getSearchPoolTable(tokens, pool));
+                    sortOrder = getSearchOrder(tokens);
+                } else {
+                    selection = DatabaseUtils.concatenateWhere(selection,
+                            HistoryDbHelper.DB_TABLE_FTS + " MATCH ?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[]{toMatchQuery(tokens)});
+                    if (sortOrder == null) {
+                        sortOrder = getSearchOrder(tokens);
+                    }
+                }
+                break;
+            case MATCH_TOP:
+                // Walks the frecency index, no sorting needed
+                sortOrder = Columns.FRECENCY + " DESC";
+                break;
+            case MATCH_SECTIONS:
+                // Only needs the timestamp index, the entries themselves aren't read
+                qb.setProjectionMap(getSectionsProjectionMap(System.currentTimeMillis()));
+                groupBy = Columns.SECTION;
+                sortOrder = "MAX(" + Columns.TIMESTAMP + ") DESC";
+                break;
+            case MATCH_VISITS:
+                qb.setTables(HistoryDbHelper.DB_TABLE_VISITS);
+                break;
             default:
                 return null;
         }
 
         SQLiteDatabase db = mDbHelper.getReadableDatabase();
-        Cursor ret = qb.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+        String limit = uri.getQueryParameter(Columns.QUERY_PARAMETER_LIMIT);
+        // A search the user typed over is aborted instead of running to the end
+        Cursor ret = qb.query(db, projection, selection, selectionArgs, groupBy, null, sortOrder,
+                limit, cancellationSignal);
 
         ret.setNotificationUri(ExtUtils.requireContextExt(this).getContentResolver(), uri);
 
         return ret;
     }
 
+    @NonNull
+    private static HashMap<String, String> getSectionsProjectionMap(long now) {
+        StringBuilder section = new StringBuilder("CASE");
+        for (int i = 0; i < UiUtils.TIME_BUCKETS.length; i++) {
+            section.append(" WHEN ").append(Columns.TIMESTAMP).append(" > ")
+                    .append(now - UiUtils.TIME_BUCKETS[i]).append(" THEN '").append(i).append('\'');
+        }
+        section.append(" ELSE strftime('%Y-%m', ").append(Columns.TIMESTAMP)
+                .append(" / 1000, 'unixepoch', 'localtime') END AS ").append(Columns.SECTION);
+
+        HashMap<String, String> map = new HashMap<>();
+        map.put(Columns.SECTION, section.toString());
+        map.put(Columns._COUNT, "COUNT(*) AS " + Columns._COUNT);
+        return map;
+    }
+
+    /**
+     * Split what the user typed into words. The punctuation is dropped, it
+     * would be parsed as query syntax. The words are lower cased: the simple
+     * tokenizer only folds the case of ASCII letters, in the query as in the
+     * index, and the others are mostly indexed in lower case.
+     */
+    @NonNull
+    private static List<String> getSearchTokens(@Nullable String query) {
+        List<String> tokens = new ArrayList<>();
+        if (query == null) {
+            return tokens;
+        }
+        for (String token : query.toLowerCase(Locale.getDefault())
+                .split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Turn the typed words into a full-text query matching the entries
+     * that contain words starting with each of them.
+     */
+    @NonNull
+    private static String toMatchQuery(@NonNull List<String> tokens) {
+        StringBuilder builder = new StringBuilder();
+        for (String token : tokens) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(token).append('*');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return how many of the most frecent matches to rank for a limited
+     * search, or 0 to rank all of them.
+     */
+    private static int getSearchPool(@Nullable String limit) {
+        if (limit == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(limit.trim()) * SEARCH_POOL_FACTOR;
+        } catch (NumberFormatException e) {
+            // E.g. an offset, rank everything
+            return 0;
+        }
+    }
+
+    /**
+     * The most frecent entries matching the typed words, in place of the
+     * history table. The match query is made of letters, digits and stars only.
+     */
+    @NonNull
+    private static String getSearchPoolTable(@NonNull List<String> tokens, int pool) {
+        // Not walking the frecency index: for a rare word that reads all of it
+        return "(SELECT * FROM " + HistoryDbHelper.DB_TABLE_HISTORY + " WHERE " +
+                BaseColumns._ID + " IN (SELECT docid FROM " + HistoryDbHelper.DB_TABLE_FTS +
+                " WHERE " + HistoryDbHelper.DB_TABLE_FTS + " MATCH " +
+                DatabaseUtils.sqlEscapeString(toMatchQuery(tokens)) + ") ORDER BY " +
+                Columns.FRECENCY + " DESC LIMIT " + pool + ") AS " +
+                HistoryDbHelper.DB_TABLE_HISTORY;
+    }
+
+    /**
+     * Rank the matches before the limit is applied, so that it keeps the
+     * best ones rather than the most recent ones. For each typed word, a
+     * word of the title starting with it counts the most, then the title
+     * containing it, then the url. Ties go to the highest frecency.
+     */
+    @NonNull
+    private static String getSearchOrder(@NonNull List<String> tokens) {
+        String title = "(' ' || IFNULL(" + HistoryDbHelper.DB_TABLE_HISTORY + "." +
+                Columns.TITLE + ", ''))";
+        String url = "IFNULL(" + HistoryDbHelper.DB_TABLE_HISTORY + "." + Columns.URL + ", '')";
+        StringBuilder score = new StringBuilder();
+        for (String token : tokens) {
+            // Only letters and digits, nothing to escape for LIKE
+            String contains = DatabaseUtils.sqlEscapeString("%" + token + "%");
+            if (score.length() > 0) {
+                score.append(" + ");
+            }
+            score.append("(CASE WHEN ").append(title).append(" LIKE ")
+                    .append(DatabaseUtils.sqlEscapeString("% " + token + "%"))
+                    .append(" THEN 3 WHEN ").append(title).append(" LIKE ").append(contains)
+                    .append(" THEN 2 ELSE 0 END) + (").append(url).append(" LIKE ")
+                    .append(contains).append(')');
+        }
+        return score + " DESC, " + HistoryDbHelper.DB_TABLE_HISTORY + "." +
+                Columns.FRECENCY + " DESC";
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (extras == null) {
+            return super.call(method, arg, extras);
+        }
+        switch (method) {
+            case METHOD_ADD_OR_UPDATE:
+                addOrUpdate(extras);
+                return null;
+            case METHOD_MAINTAIN:
+                return maintain(extras.getLong(EXTRA_MAX_AGE), extras.getInt(EXTRA_MAX_ENTRIES));
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    private void addOrUpdate(@NonNull Bundle extras) {
+        String[] titles = extras.getStringArray(EXTRA_TITLES);
+        String[] urls = extras.getStringArray(EXTRA_URLS);
+        int[] visitCounts = extras.getIntArray(EXTRA_VISIT_COUNTS);
+        long[] visitTimes = extras.getLongArray(EXTRA_VISIT_TIMES);
+        if (titles == null || urls == null || titles.length != urls.length ||
+                (visitCounts != null && (visitCounts.length != urls.length ||
+                        visitTimes == null))) {
+            throw new IllegalArgumentException("Invalid entries");
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            int visit = 0;
+            for (int i = 0; i < urls.length; i++) {
+                int visitCount = visitCounts != null ? visitCounts[i] : 0;
+                if (urls[i] != null) {
+                    addOrUpdate(db, titles[i], urls[i], visitTimes, visit, visitCount, now);
+                }
+                visit += visitCount;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        notifyChange(Columns.CONTENT_URI);
+    }
+
+    private static void addOrUpdate(SQLiteDatabase db, String title, String url,
+                                    long[] visitTimes, int firstVisit, int visitCount,
+                                    long now) {
+        ContentValues values = new ContentValues();
+        if (title != null) {
+            values.put(Columns.TITLE, title);
+        }
+
+        // The url index makes every statement a lookup rather than a scan.
+        // Upsert clauses need SQLite 3.24, so resolve the conflict by hand
+        if (visitCount == 0) {
+            if (values.size() > 0 && db.update(HistoryDbHelper.DB_TABLE_HISTORY, values,
+                    Columns.URL + " = ?", new String[]{url}) > 0) {
+                return;
+            }
+            // Nothing was updated: either a new url, or an existing entry
+            // without a new title, which the unique url index keeps as it is
+            values.put(Columns.URL, url);
+            values.put(Columns.TIMESTAMP, now);
+            db.insertWithOnConflict(HistoryDbHelper.DB_TABLE_HISTORY, null, values,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+            return;
+        }
+
+        long id = -1;
+        int count = 0;
+        double frecency = 0;
+        try (Cursor cursor = db.query(HistoryDbHelper.DB_TABLE_HISTORY, new String[]{
+                        BaseColumns._ID, Columns.VISIT_COUNT, Columns.FRECENCY},
+                Columns.URL + " = ?", new String[]{url}, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                id = cursor.getLong(0);
+                count = cursor.getInt(1);
+                frecency = cursor.getDouble(2);
+            }
+        }
+        if (id < 0) {
+            values.put(Columns.URL, url);
+            values.put(Columns.TIMESTAMP, visitTimes[firstVisit]);
+            id = db.insert(HistoryDbHelper.DB_TABLE_HISTORY, null, values);
+            values.clear();
+        }
+
+        ContentValues visit = new ContentValues();
+        visit.put(HistoryDbHelper.VISIT_HISTORY_ID, id);
+        for (int i = firstVisit; i < firstVisit + visitCount; i++) {
+            visit.put(HistoryDbHelper.VISIT_TIMESTAMP, visitTimes[i]);
+            db.insert(HistoryDbHelper.DB_TABLE_VISITS, null, visit);
+            frecency = addVisit(frecency, count++, visitTimes[i]);
+        }
+
+        values.put(Columns.VISIT_COUNT, count);
+        values.put(Columns.FRECENCY, frecency);
+        db.update(HistoryDbHelper.DB_TABLE_HISTORY, values, BaseColumns._ID + " = ?",
+                new String[]{String.valueOf(id)});
+    }
+
+    @NonNull
+    private Bundle maintain(long maxAge, int maxEntries) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long sizeBefore = HistoryDbHelper.getSize(db);
+
+        int deleted = 0;
+        boolean changed = false;
+        if (maxAge > 0) {
+            long cutoff = System.currentTimeMillis() - maxAge;
+            deleted += deleteVisitedBefore(db, cutoff);
+            changed = pruneVisits(db, cutoff);
+        }
+        if (maxEntries > 0 && DatabaseUtils.queryNumEntries(db,
+                HistoryDbHelper.DB_TABLE_HISTORY) > maxEntries) {
+            // The first visit of the oldest of the entries to keep, a single
+            // lookup on the timestamp index. Older entries visited since then
+            // are kept too, the limit is a lower bound
+            long cutoff = DatabaseUtils.longForQuery(db, "SELECT " + Columns.TIMESTAMP +
+                    " FROM " + HistoryDbHelper.DB_TABLE_HISTORY + " ORDER BY " +
+                    Columns.TIMESTAMP + " DESC LIMIT 1 OFFSET " + (maxEntries - 1), null);
+            deleted += deleteVisitedBefore(db, cutoff);
+        }
+
+        HistoryDbHelper.compact(db);
+        // Keep the planner choosing the url and timestamp indexes as the table changes
+        db.execSQL("ANALYZE");
+
+        if (deleted > 0 || changed) {
+            notifyChange(Columns.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(RESULT_DELETED, deleted);
+        result.putLong(RESULT_SIZE_BEFORE, sizeBefore);
+        result.putLong(RESULT_SIZE_AFTER, HistoryDbHelper.getSize(db));
+        return result;
+    }
+
+    /**
+     * Delete the entries last visited before the given time, in chunks.
+     * The last visit is never earlier than the first one, so the timestamp
+     * index narrows down the candidates.
+     */
+    private static int deleteVisitedBefore(SQLiteDatabase db, long cutoff) {
+        String[] args = new String[]{String.valueOf(cutoff), String.valueOf(cutoff)};
+        int deleted = 0;
+        int count;
+        do {
+            count = db.delete(HistoryDbHelper.DB_TABLE_HISTORY, BaseColumns._ID +
+                    " IN (SELECT " + BaseColumns._ID + " FROM " +
+                    HistoryDbHelper.DB_TABLE_HISTORY + " WHERE " + Columns.TIMESTAMP +
+                    " < ? AND NOT EXISTS (SELECT 1 FROM " + HistoryDbHelper.DB_TABLE_VISITS +
+                    " WHERE " + HistoryDbHelper.DB_TABLE_VISITS + "." +
+                    HistoryDbHelper.VISIT_HISTORY_ID + " = " +
+                    HistoryDbHelper.DB_TABLE_HISTORY + "." + BaseColumns._ID + " AND " +
+                    HistoryDbHelper.DB_TABLE_VISITS + "." + HistoryDbHelper.VISIT_TIMESTAMP +
+                    " >= ?) LIMIT " + DELETE_CHUNK_SIZE + ")", args);
+            deleted += count;
+        } while (count == DELETE_CHUNK_SIZE);
+        return deleted;
+    }
+
+    /**
+     * Delete the visits older than the given time, those of the entries that
+     * were visited again since then.
+     *
+     * @return whether any visit was deleted.
+     */
+    private static boolean pruneVisits(SQLiteDatabase db, long cutoff) {
+        String[] args = new String[]{String.valueOf(cutoff)};
+        // Keep the visit counts in line with the table. The frecency of the
+        // entries already accounts for the old visits, it is left as it is
+        SQLiteStatement update = db.compileStatement("UPDATE " +
+                HistoryDbHelper.DB_TABLE_HISTORY + " SET " + Columns.VISIT_COUNT +
+                " = (SELECT COUNT(*) FROM " + HistoryDbHelper.DB_TABLE_VISITS + " WHERE " +
+                HistoryDbHelper.DB_TABLE_VISITS + "." + HistoryDbHelper.VISIT_HISTORY_ID +
+                " = " + HistoryDbHelper.DB_TABLE_HISTORY + "." + BaseColumns._ID + " AND " +
+                HistoryDbHelper.DB_TABLE_VISITS + "." + HistoryDbHelper.VISIT_TIMESTAMP +
+                " >= ?1) WHERE " + BaseColumns._ID + " IN (SELECT " +
+                HistoryDbHelper.VISIT_HISTORY_ID + " FROM " + HistoryDbHelper.DB_TABLE_VISITS +
+                " WHERE " + HistoryDbHelper.VISIT_TIMESTAMP + " < ?1)");
+        int updated;
+        try {
+            update.bindLong(1, cutoff);
+            updated = update.executeUpdateDelete();
+        } finally {
+            update.close();
+        }
+        int count;
+        do {
+            count = db.delete(HistoryDbHelper.DB_TABLE_VISITS, BaseColumns._ID +
+                    " IN (SELECT " + BaseColumns._ID + " FROM " +
+                    HistoryDbHelper.DB_TABLE_VISITS + " WHERE " +
+                    HistoryDbHelper.VISIT_TIMESTAMP + " < ? LIMIT " + DELETE_CHUNK_SIZE +
+                    ")", args);
+        } while (count == DELETE_CHUNK_SIZE);
+        return updated > 0;
+    }
+
     @Nullable
     @Override
     public String getType(@NonNull Uri uri) {
@@ -116,19 +587,44 @@ public class HistoryProvider extends ContentProvider {
             return null;
         }
 
-        if (values != null && !values.containsKey(Columns.TIMESTAMP)) {
-            values.put(Columns.TIMESTAMP, System.currentTimeMillis() / 1000);
-        }
-
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        long rowID = db.insert(HistoryDbHelper.DB_TABLE_HISTORY, null, values);
+        long rowID;
+        db.beginTransaction();
+        try {
+            rowID = insertEntry(db, values);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
         if (rowID <= 0) {
             return null;
         }
 
-        ExtUtils.requireContextExt(this).getContentResolver().notifyChange(Columns.CONTENT_URI, null);
+        Uri itemUri = ContentUris.withAppendedId(Columns.CONTENT_URI, rowID);
+        notifyChange(itemUri);
+
+        return itemUri;
+    }
+
+    private static long insertEntry(SQLiteDatabase db, ContentValues values) {
+        if (values != null && !values.containsKey(Columns.TIMESTAMP)) {
+            values.put(Columns.TIMESTAMP, System.currentTimeMillis());
+        }
+        // Count the entry as visited once when it was created
+        boolean firstVisit = values != null && !values.containsKey(Columns.VISIT_COUNT);
+        if (firstVisit) {
+            values.put(Columns.VISIT_COUNT, 1);
+            values.put(Columns.FRECENCY, addVisit(0, 0, values.getAsLong(Columns.TIMESTAMP)));
+        }
 
-        return ContentUris.withAppendedId(Columns.CONTENT_URI, rowID);
+        long rowID = db.insert(HistoryDbHelper.DB_TABLE_HISTORY, null, values);
+        if (rowID > 0 && firstVisit) {
+            ContentValues visit = new ContentValues();
+            visit.put(HistoryDbHelper.VISIT_HISTORY_ID, rowID);
+            visit.put(HistoryDbHelper.VISIT_TIMESTAMP, values.getAsLong(Columns.TIMESTAMP));
+            db.insert(HistoryDbHelper.DB_TABLE_VISITS, null, visit);
+        }
+        return rowID;
     }
 
     @Override
@@ -156,7 +652,7 @@ public class HistoryProvider extends ContentProvider {
         }
 
         if (count > 0) {
-            ExtUtils.requireContextExt(this).getContentResolver().notifyChange(Columns.CONTENT_URI, null);
+            notifyChange(match == MATCH_ID ? uri : Columns.CONTENT_URI);
         }
 
         return count;
@@ -169,9 +665,26 @@ public class HistoryProvider extends ContentProvider {
         String[] localSelectionArgs = selectionArgs;
         int match = sURIMatcher.match(uri);
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        String limit = uri.getQueryParameter(Columns.QUERY_PARAMETER_LIMIT);
+
+        if (match == MATCH_VISITS) {
+            int count = deleteVisits(db, selection, selectionArgs,
+                    limit != null ? Integer.parseInt(limit) : Integer.MAX_VALUE);
+            if (count > 0 && uri.getBooleanQueryParameter(Columns.QUERY_PARAMETER_NOTIFY, true)) {
+                notifyChange(Columns.CONTENT_URI);
+            }
+            return count;
+        }
 
         switch (match) {
             case MATCH_ALL:
+                if (limit != null) {
+                    // The rows are found on the index matching the selection, if any
+                    localSelection = BaseColumns._ID + " IN (SELECT " + BaseColumns._ID +
+                            " FROM " + HistoryDbHelper.DB_TABLE_HISTORY +
+                            (localSelection != null ? " WHERE " + localSelection : "") +
+                            " LIMIT " + Integer.parseInt(limit) + ")";
+                }
                 break;
             case MATCH_ID:
                 if (localSelection != null || localSelectionArgs != null) {
@@ -187,29 +700,270 @@ public class HistoryProvider extends ContentProvider {
 
         int count = db.delete(HistoryDbHelper.DB_TABLE_HISTORY, localSelection, localSelectionArgs);
 
-        if (count > 0) {
-            ExtUtils.requireContextExt(this).getContentResolver().notifyChange(Columns.CONTENT_URI, null);
+        if (count > 0 && uri.getBooleanQueryParameter(Columns.QUERY_PARAMETER_NOTIFY, true)) {
+            notifyChange(match == MATCH_ID ? uri : Columns.CONTENT_URI);
         }
 
         return count;
     }
 
+    /**
+     * Delete the visits matching the selection, then the entries left
+     * without any, in a single transaction. The entries that remain get
+     * their first visit, visit count and frecency recomputed from the
+     * visits they still have. The entries matching the selection that never
+     * had a visit recorded are deleted too.
+     *
+     * @param limit the maximum number of visits and entries to delete.
+     * @return the number of deleted visits and entries without visits.
+     */
+    private static int deleteVisits(SQLiteDatabase db, @Nullable String selection,
+                                    @Nullable String[] selectionArgs, int limit) {
+        String where = selection != null ? " WHERE " + selection : "";
+        int count = 0;
+        db.beginTransaction();
+        try {
+            // Entry id -> the earliest of its deleted visits
+            HashMap<Long, Long> entries = new HashMap<>();
+            StringBuilder visits = new StringBuilder();
+            try (Cursor cursor = db.rawQuery("SELECT " + BaseColumns._ID + ", " +
+                    HistoryDbHelper.VISIT_HISTORY_ID + ", " + HistoryDbHelper.VISIT_TIMESTAMP +
+                    " FROM " + HistoryDbHelper.DB_TABLE_VISITS + where + " LIMIT " + limit,
+                    selectionArgs)) {
+                while (cursor.moveToNext()) {
+                    visits.append(visits.length() == 0 ? "" : ",").append(cursor.getLong(0));
+                    Long earliest = entries.get(cursor.getLong(1));
+                    if (earliest == null || cursor.getLong(2) < earliest) {
+                        entries.put(cursor.getLong(1), cursor.getLong(2));
+                    }
+                    count++;
+                }
+            }
+            if (count > 0) {
+                db.delete(HistoryDbHelper.DB_TABLE_VISITS,
+                        BaseColumns._ID + " IN (" + visits + ")", null);
+                for (Map.Entry<Long, Long> entry : entries.entrySet()) {
+                    refreshVisits(db, entry.getKey(), entry.getValue());
+                }
+            }
+            if (count < limit) {
+                count += db.delete(HistoryDbHelper.DB_TABLE_HISTORY, BaseColumns._ID +
+                        " IN (SELECT " + BaseColumns._ID + " FROM " +
+                        HistoryDbHelper.DB_TABLE_HISTORY + where +
+                        (where.isEmpty() ? " WHERE " : " AND ") +
+                        // One probe of the visits index per entry
+                        "NOT EXISTS (SELECT 1 FROM " + HistoryDbHelper.DB_TABLE_VISITS +
+                        " WHERE " + HistoryDbHelper.DB_TABLE_VISITS + "." +
+                        HistoryDbHelper.VISIT_HISTORY_ID + " = " +
+                        HistoryDbHelper.DB_TABLE_HISTORY + "." + BaseColumns._ID +
+                        ") LIMIT " + (limit - count) + ")",
+                        selectionArgs);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return count;
+    }
+
+    /**
+     * Recompute what an entry keeps about its visits from those it has left,
+     * or delete it if there are none.
+     *
+     * @param earliestDeleted the time of the earliest of its deleted visits.
+     */
+    private static void refreshVisits(SQLiteDatabase db, long id, long earliestDeleted) {
+        String[] args = new String[]{String.valueOf(id)};
+        int count = 0;
+        long firstRemaining = 0;
+        double frecency = 0;
+        try (Cursor cursor = db.query(HistoryDbHelper.DB_TABLE_VISITS,
+                new String[]{HistoryDbHelper.VISIT_TIMESTAMP}, HistoryDbHelper.VISIT_HISTORY_ID +
+                        " = ?", args, null, null, HistoryDbHelper.VISIT_TIMESTAMP)) {
+            while (cursor.moveToNext()) {
+                long time = cursor.getLong(0);
+                if (count == 0) {
+                    firstRemaining = time;
+                }
+                frecency = addVisit(frecency, count++, time);
+            }
+        }
+        if (count == 0) {
+            db.delete(HistoryDbHelper.DB_TABLE_HISTORY, BaseColumns._ID + " = ?", args);
+            return;
+        }
+
+        ContentValues values = new ContentValues(3);
+        values.put(Columns.VISIT_COUNT, count);
+        values.put(Columns.FRECENCY, frecency);
+        db.update(HistoryDbHelper.DB_TABLE_HISTORY, values, BaseColumns._ID + " = ?", args);
+        // The first visit only moves if it was deleted: it may be older than
+        // all the visits left, those pruned by maintain()
+        values.clear();
+        values.put(Columns.TIMESTAMP, firstRemaining);
+        db.update(HistoryDbHelper.DB_TABLE_HISTORY, values, BaseColumns._ID + " = ? AND " +
+                Columns.TIMESTAMP + " >= ?", new String[]{args[0], String.valueOf(earliestDeleted)});
+    }
+
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        if (sURIMatcher.match(uri) != MATCH_ALL) {
+            return 0;
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (insertEntry(db, value) > 0) {
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (count > 0) {
+            notifyChange(Columns.CONTENT_URI);
+        }
+        return count;
+    }
+
+    /**
+     * Apply all the operations in a single transaction, with a single notification.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        mBatchChanged.set(false);
+        boolean changed = false;
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            changed = mBatchChanged.get();
+            return results;
+        } finally {
+            db.endTransaction();
+            mBatchChanged.remove();
+            if (changed) {
+                notifyChange(Columns.CONTENT_URI);
+            }
+        }
+    }
+
+    /**
+     * @param uri the changed item, or the whole table when several rows changed.
+     */
+    private void notifyChange(@NonNull Uri uri) {
+        if (mBatchChanged.get() != null) {
+            // The whole table is notified once the batch is committed
+            mBatchChanged.set(true);
+        } else {
+            ExtUtils.requireContextExt(this).getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     public interface Columns extends BaseColumns {
         String AUTHORITY = "org.lineageos.jelly.history";
         Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/history");
 
         String TITLE = "title";
         String URL = "url";
+        /**
+         * Time of the first visit, in milliseconds since the epoch.
+         */
         String TIMESTAMP = "timestamp";
+        /**
+         * Number of recorded visits.
+         */
+        String VISIT_COUNT = "visit_count";
+        /**
+         * How often and how recently the page was visited, the higher the better.
+         * Only meaningful to compare entries, see {@link HistoryProvider#getVisitWeight(double, long)}.
+         */
+        String FRECENCY = "frecency";
+
+        /**
+         * Query parameter limiting the number of rows returned by a query, or
+         * deleted by a delete.
+         */
+        String QUERY_PARAMETER_LIMIT = "limit";
+        /**
+         * Query parameter of a delete, false not to notify the change. The
+         * caller then notifies {@link #CONTENT_URI} itself, e.g. once after
+         * deleting several chunks.
+         */
+        String QUERY_PARAMETER_NOTIFY = "notify";
+
+        /**
+         * Uri searching the titles and urls for the words given by
+         * {@link #QUERY_PARAMETER_SEARCH}. Without a sort order, the best
+         * matches come first.
+         */
+        Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, "search");
+        String QUERY_PARAMETER_SEARCH = "query";
+
+        /**
+         * Uri of the entries sorted by decreasing {@link #FRECENCY}.
+         * Use {@link #QUERY_PARAMETER_LIMIT} to get the top ones only.
+         */
+        Uri TOP_URI = Uri.withAppendedPath(CONTENT_URI, "top");
+
+        /**
+         * Uri of the visits, which only have a {@link #TIMESTAMP}. A delete
+         * removes the visits matching the selection and the entries left
+         * without any visit, see {@link #QUERY_PARAMETER_LIMIT} and
+         * {@link #QUERY_PARAMETER_NOTIFY}. The entries that remain are updated.
+         */
+        Uri VISITS_URI = Uri.withAppendedPath(CONTENT_URI, "visits");
+
+        /**
+         * Uri of the sections the entries are grouped in, most recent first,
+         * with the {@link #SECTION} and {@link #_COUNT} columns.
+         */
+        Uri SECTIONS_URI = Uri.withAppendedPath(CONTENT_URI, "sections");
+        /**
+         * The recent entries are grouped by {@link UiUtils#getPositionInTime(long)},
+         * from "0" to "3", the older ones by month of the first visit, as
+         * "yyyy-MM" in local time.
+         */
+        String SECTION = "section";
     }
 
     private static class HistoryDbHelper extends SQLiteOpenHelper {
-        private static final int DB_VERSION = 2;
+        private static final int DB_VERSION = 5;
         private static final String DB_NAME = "HistoryDatabase";
         private static final String DB_TABLE_HISTORY = "history";
+        private static final String DB_TABLE_FTS = "history_fts";
+        private static final String DB_TABLE_VISITS = "visits";
+        private static final String VISIT_HISTORY_ID = "history_id";
+        private static final String VISIT_TIMESTAMP = "timestamp";
 
         public HistoryDbHelper(Context context) {
             super(context, DB_NAME, null, DB_VERSION);
+            // Let the history screen and the suggestions read while tabs record pages
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            // These pragmas only apply to the connection that runs them, the
+            // primary one. It is the one all writes go through, so synchronous
+            // covers every commit, but the pooled read connections keep the
+            // default cache size: there is no way to configure those before
+            // API 28, and even then not the cache size.
+            // With WAL, NORMAL can only lose the last commits on power loss, never corrupt
+            db.execSQL("PRAGMA synchronous = NORMAL");
+            // 2 MiB, enough to keep the url and timestamp indexes of the writer in memory
+            db.execSQL("PRAGMA cache_size = -2048");
+            // Visits go away with their entry
+            db.setForeignKeyConstraintsEnabled(true);
         }
 
         @Override
@@ -218,7 +972,89 @@ public class HistoryProvider extends ContentProvider {
                     BaseColumns._ID  + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
                     Columns.TIMESTAMP + " INTEGER NOT NULL, " +
                     Columns.TITLE + " TEXT, " +
-                    Columns.URL + " TEXT)");
+                    Columns.URL + " TEXT, " +
+                    Columns.VISIT_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                    Columns.FRECENCY + " REAL NOT NULL DEFAULT 0)");
+            createIndexes(db);
+            createFullTextIndex(db);
+            createVisits(db);
+        }
+
+        private static void createIndexes(SQLiteDatabase db) {
+            db.execSQL("CREATE UNIQUE INDEX " + DB_TABLE_HISTORY + "_url_idx ON " +
+                    DB_TABLE_HISTORY + "(" + Columns.URL + ")");
+            db.execSQL("CREATE INDEX " + DB_TABLE_HISTORY + "_timestamp_idx ON " +
+                    DB_TABLE_HISTORY + "(" + Columns.TIMESTAMP + ")");
+        }
+
+        /**
+         * Index titles and urls in an external content FTS table, so that the
+         * text is not stored twice, kept in sync by triggers.
+         */
+        private static void createFullTextIndex(SQLiteDatabase db) {
+            db.execSQL("CREATE VIRTUAL TABLE " + DB_TABLE_FTS + " USING fts4(content=\"" +
+                    DB_TABLE_HISTORY + "\", " + Columns.TITLE + ", " + Columns.URL + ")");
+            createFullTextTriggers(db);
+        }
+
+        private static void createFullTextTriggers(SQLiteDatabase db) {
+            String deleteOld = "DELETE FROM " + DB_TABLE_FTS + " WHERE docid = old." +
+                    BaseColumns._ID + "; END";
+            String insertNew = "INSERT INTO " + DB_TABLE_FTS + "(docid, " + Columns.TITLE +
+                    ", " + Columns.URL + ") VALUES (new." + BaseColumns._ID + ", new." +
+                    Columns.TITLE + ", new." + Columns.URL + "); END";
+            // Visits update the history table too, only reindex when the text changes
+            String textUpdate = " UPDATE OF " + Columns.TITLE + ", " + Columns.URL + " ON ";
+            // The old content must be removed before it changes in the history table
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS " + DB_TABLE_HISTORY + "_bu BEFORE" +
+                    textUpdate + DB_TABLE_HISTORY + " BEGIN " + deleteOld);
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS " + DB_TABLE_HISTORY +
+                    "_bd BEFORE DELETE ON " + DB_TABLE_HISTORY + " BEGIN " + deleteOld);
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS " + DB_TABLE_HISTORY + "_au AFTER" +
+                    textUpdate + DB_TABLE_HISTORY + " BEGIN " + insertNew);
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS " + DB_TABLE_HISTORY +
+                    "_ai AFTER INSERT ON " + DB_TABLE_HISTORY + " BEGIN " + insertNew);
+        }
+
+        private static void createVisits(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + DB_TABLE_VISITS + " (" +
+                    BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    VISIT_HISTORY_ID + " INTEGER NOT NULL REFERENCES " + DB_TABLE_HISTORY +
+                    "(" + BaseColumns._ID + ") ON DELETE CASCADE, " +
+                    VISIT_TIMESTAMP + " INTEGER NOT NULL)");
+            // Needed by the cascade, and to prune old visits
+            db.execSQL("CREATE INDEX " + DB_TABLE_VISITS + "_history_id_idx ON " +
+                    DB_TABLE_VISITS + "(" + VISIT_HISTORY_ID + ")");
+            db.execSQL("CREATE INDEX " + DB_TABLE_VISITS + "_timestamp_idx ON " +
+                    DB_TABLE_VISITS + "(" + VISIT_TIMESTAMP + ")");
+            db.execSQL("CREATE INDEX " + DB_TABLE_HISTORY + "_frecency_idx ON " +
+                    DB_TABLE_HISTORY + "(" + Columns.FRECENCY + ")");
+        }
+
+        private static long getSize(SQLiteDatabase db) {
+            return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null) *
+                    DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        }
+
+        /**
+         * Release the free pages, so that the file shrinks after deletions.
+         * Databases created without incremental auto-vacuum are rebuilt once
+         * to turn it on, after that it is cheap enough to be done every time.
+         */
+        private static void compact(SQLiteDatabase db) {
+            // 2 is INCREMENTAL
+            if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != 2) {
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                db.execSQL("VACUUM");
+            } else {
+                // Returns a row per freed page and frees one per step, so it
+                // must be stepped to the end. execSQL() rejects rows anyway
+                try (Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null)) {
+                    while (cursor.moveToNext()) {
+                        // Each step releases a page
+                    }
+                }
+            }
         }
 
         @Override
@@ -239,6 +1075,41 @@ public class HistoryProvider extends ContentProvider {
                 db.execSQL("ALTER TABLE " + DB_TABLE_HISTORY
                         + "_new RENAME TO " + DB_TABLE_HISTORY);
             }
+            if (oldVersion < 3) {
+                // Keep only the most recent entry of each url, so that it can be unique
+                db.execSQL("DELETE FROM " + DB_TABLE_HISTORY + " WHERE " + BaseColumns._ID +
+                        " NOT IN (SELECT MAX(" + BaseColumns._ID + ") FROM " +
+                        DB_TABLE_HISTORY + " GROUP BY " + Columns.URL + ")");
+                // Entries inserted without a timestamp got one in seconds.
+                // 10^11 milliseconds is early 1973, 10^11 seconds is in the year 5138
+                db.execSQL("UPDATE " + DB_TABLE_HISTORY + " SET " + Columns.TIMESTAMP +
+                        " = " + Columns.TIMESTAMP + " * 1000 WHERE " + Columns.TIMESTAMP +
+                        " < 100000000000");
+                createIndexes(db);
+            }
+            if (oldVersion < 4) {
+                createFullTextIndex(db);
+                db.execSQL("INSERT INTO " + DB_TABLE_FTS + "(" + DB_TABLE_FTS +
+                        ") VALUES ('rebuild')");
+            }
+            if (oldVersion < 5) {
+                db.execSQL("ALTER TABLE " + DB_TABLE_HISTORY + " ADD COLUMN " +
+                        Columns.VISIT_COUNT + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + DB_TABLE_HISTORY + " ADD COLUMN " +
+                        Columns.FRECENCY + " REAL NOT NULL DEFAULT 0");
+                // Stop reindexing the text on every visit, before any is recorded
+                db.execSQL("DROP TRIGGER " + DB_TABLE_HISTORY + "_bu");
+                db.execSQL("DROP TRIGGER " + DB_TABLE_HISTORY + "_au");
+                createFullTextTriggers(db);
+                createVisits(db);
+                // Only the first visit of the existing entries is known
+                db.execSQL("INSERT INTO " + DB_TABLE_VISITS + "(" + VISIT_HISTORY_ID + ", " +
+                        VISIT_TIMESTAMP + ") SELECT " + BaseColumns._ID + ", " +
+                        Columns.TIMESTAMP + " FROM " + DB_TABLE_HISTORY);
+                db.execSQL("UPDATE " + DB_TABLE_HISTORY + " SET " + Columns.VISIT_COUNT +
+                        " = 1, " + Columns.FRECENCY + " = " + Columns.TIMESTAMP + " * " +
+                        FRECENCY_DECAY);
+            }
         }
     }
 }
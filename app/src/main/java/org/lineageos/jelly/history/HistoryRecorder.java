@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.jelly.history;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records visited pages without ever blocking the UI thread on disk.
+ * Pages are queued and written by a background thread a moment later,
+ * in a single transaction: a page changing its title several times in
+ * the meantime results in a single write, its visits in one update of
+ * its frecency.
+ */
+public class HistoryRecorder {
+    private static final long COALESCE_WINDOW_MS = 2000;
+
+    private static HistoryRecorder sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final Runnable mFlushRunnable = this::write;
+    // In the order the pages were first visited
+    private final LinkedHashMap<String, PendingPage> mPending = new LinkedHashMap<>();
+
+    private HistoryRecorder(@NonNull Context context) {
+        mResolver = context.getContentResolver();
+
+        HandlerThread thread = new HandlerThread("HistoryRecorder",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    @NonNull
+    public static synchronized HistoryRecorder getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new HistoryRecorder(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queue the title of a page. Must not be called for incognito tabs.
+     */
+    public void record(@NonNull String url, String title) {
+        synchronized (mPending) {
+            getPending(url).title = title;
+        }
+    }
+
+    /**
+     * Queue a navigation to a page. Must not be called for incognito tabs.
+     */
+    public void recordVisit(@NonNull String url) {
+        synchronized (mPending) {
+            getPending(url).visits.add(System.currentTimeMillis());
+        }
+    }
+
+    @NonNull
+    private PendingPage getPending(@NonNull String url) {
+        PendingPage page = mPending.get(url);
+        if (page == null) {
+            if (mPending.isEmpty()) {
+                mHandler.postDelayed(mFlushRunnable, COALESCE_WINDOW_MS);
+            }
+            page = new PendingPage();
+            mPending.put(url, page);
+        }
+        return page;
+    }
+
+    /**
+     * Write the queued pages now, e.g. because the app is going to the background.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.postAtFrontOfQueue(mFlushRunnable);
+    }
+
+    private void write() {
+        String[] urls;
+        String[] titles;
+        int[] visitCounts;
+        List<Long> visits = new ArrayList<>();
+        synchronized (mPending) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            urls = new String[mPending.size()];
+            titles = new String[mPending.size()];
+            visitCounts = new int[mPending.size()];
+            int i = 0;
+            for (Map.Entry<String, PendingPage> entry : mPending.entrySet()) {
+                urls[i] = entry.getKey();
+                titles[i] = entry.getValue().title;
+                visitCounts[i] = entry.getValue().visits.size();
+                visits.addAll(entry.getValue().visits);
+                i++;
+            }
+            mPending.clear();
+            // Pages recorded from now on start a new window
+            mHandler.removeCallbacks(mFlushRunnable);
+        }
+
+        long[] visitTimes = new long[visits.size()];
+        for (int i = 0; i < visitTimes.length; i++) {
+            visitTimes[i] = visits.get(i);
+        }
+        HistoryProvider.addOrUpdateItems(mResolver, titles, urls, visitCounts, visitTimes);
+    }
+
+    private static class PendingPage {
+        // Null until the page gets one, an existing title is kept until then
+        String title;
+        final List<Long> visits = new ArrayList<>();
+    }
+}
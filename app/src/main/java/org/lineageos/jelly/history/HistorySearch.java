@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.jelly.history;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.provider.BaseColumns;
+
+import androidx.annotation.NonNull;
+
+import org.lineageos.jelly.R;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches the history as the user types. Queries run on a background
+ * thread, a new query cancels the one in progress and only the results
+ * of the latest one are delivered.
+ */
+class HistorySearch {
+    // The best matches are enough, nobody scrolls through more
+    private static final int MAX_CANDIDATES = 200;
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    private static final String[] PROJECTION = new String[]{
+            BaseColumns._ID,
+            HistoryProvider.Columns.TITLE,
+            HistoryProvider.Columns.URL,
+            HistoryProvider.Columns.TIMESTAMP,
+    };
+
+    private final ContentResolver mResolver;
+    // Only used by the executor thread
+    private final DateFormat mDateFormat;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Callback mCallback;
+    // Only accessed on the UI thread
+    private CancellationSignal mCancellationSignal;
+    private int mGeneration;
+
+    interface Callback {
+        void onResults(@NonNull String query, @NonNull List<HistoryItem> results);
+    }
+
+    HistorySearch(@NonNull Context context, @NonNull Callback callback) {
+        mResolver = context.getContentResolver();
+        mDateFormat = new SimpleDateFormat(context.getString(R.string.history_date_format),
+                Locale.getDefault());
+        mCallback = callback;
+    }
+
+    void search(@NonNull String query) {
+        cancel();
+        int generation = mGeneration;
+        CancellationSignal signal = new CancellationSignal();
+        mCancellationSignal = signal;
+        mExecutor.execute(() -> {
+            List<HistoryItem> results;
+            try {
+                results = rank(query, queryCandidates(query, signal));
+            } catch (OperationCanceledException e) {
+                return;
+            }
+            mHandler.post(() -> {
+                if (generation == mGeneration) {
+                    mCallback.onResults(query, results);
+                }
+            });
+        });
+    }
+
+    /**
+     * Drop the search in progress, if any.
+     */
+    void cancel() {
+        mGeneration++;
+        if (mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+            mCancellationSignal = null;
+        }
+    }
+
+    void close() {
+        cancel();
+        mExecutor.shutdownNow();
+    }
+
+    @NonNull
+    private List<HistoryItem> queryCandidates(@NonNull String query,
+                                              @NonNull CancellationSignal signal) {
+        Uri uri = HistoryProvider.Columns.SEARCH_URI.buildUpon()
+                .appendQueryParameter(HistoryProvider.Columns.QUERY_PARAMETER_SEARCH, query)
+                .appendQueryParameter(HistoryProvider.Columns.QUERY_PARAMETER_LIMIT,
+                        String.valueOf(MAX_CANDIDATES))
+                .build();
+        List<HistoryItem> items = new ArrayList<>();
+        // Without a sort order the provider ranks the matches before the limit
+        try (Cursor cursor = mResolver.query(uri, PROJECTION, null, null, null, signal)) {
+            while (cursor != null && cursor.moveToNext()) {
+                items.add(HistoryItem.fromCursor(cursor, mDateFormat));
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Sort the matches by quality first, then by recency.
+     */
+    @NonNull
+    private static List<HistoryItem> rank(@NonNull String query,
+                                          @NonNull List<HistoryItem> candidates) {
+        String[] tokens = query.toLowerCase(Locale.getDefault()).split("[^\\p{L}\\p{N}]+");
+        long now = System.currentTimeMillis();
+        List<Scored> scored = new ArrayList<>(candidates.size());
+        for (HistoryItem item : candidates) {
+            scored.add(new Scored(item, score(item, tokens, now)));
+        }
+        Collections.sort(scored, (a, b) -> Float.compare(b.score, a.score));
+
+        List<HistoryItem> results = new ArrayList<>(scored.size());
+        for (Scored s : scored) {
+            results.add(s.item);
+        }
+        return results;
+    }
+
+    private static float score(@NonNull HistoryItem item, @NonNull String[] tokens, long now) {
+        String title = item.title != null ? item.title.toLowerCase(Locale.getDefault()) : "";
+        String url = item.url != null ? item.url.toLowerCase(Locale.getDefault()) : "";
+        float score = 0;
+        for (String token : tokens) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            // A whole word is a better match than a prefix, the title better than the url
+            if (containsWord(title, token)) {
+                score += 3;
+            } else if (title.contains(token)) {
+                score += 2;
+            }
+            if (url.contains(token)) {
+                score += 1;
+            }
+        }
+        float ageDays = Math.max(0, now - item.timestamp) / (float) DAY_MS;
+        return score + 1f / (1f + ageDays);
+    }
+
+    private static boolean containsWord(@NonNull String text, @NonNull String word) {
+        int pos = text.indexOf(word);
+        while (pos >= 0) {
+            int end = pos + word.length();
+            boolean startsWord = pos == 0 || !Character.isLetterOrDigit(text.charAt(pos - 1));
+            boolean endsWord = end == text.length() || !Character.isLetterOrDigit(text.charAt(end));
+            if (startsWord && endsWord) {
+                return true;
+            }
+            pos = text.indexOf(word, pos + 1);
+        }
+        return false;
+    }
+
+    private static class Scored {
+        final HistoryItem item;
+        final float score;
+
+        Scored(HistoryItem item, float score) {
+            this.item = item;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.jelly.history;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.recyclerview.widget.RecyclerView.ItemDecoration;
+
+import org.lineageos.jelly.R;
+
+/**
+ * Draws a header above the first entry of each section, and keeps the one
+ * of the section at the top of the list pinned there. The headers come
+ * from the section index, so they don't depend on the entries being loaded.
+ */
+class HistorySectionDecoration extends ItemDecoration {
+    private final HistoryAdapter mAdapter;
+    private final int mHeight;
+    private final int mPadding;
+    private final Paint mBackgroundPaint = new Paint();
+    private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    HistorySectionDecoration(Context context, HistoryAdapter adapter) {
+        Resources res = context.getResources();
+        mAdapter = adapter;
+        mHeight = res.getDimensionPixelSize(R.dimen.history_section_height);
+        mPadding = res.getDimensionPixelSize(R.dimen.history_section_padding);
+        mBackgroundPaint.setColor(ContextCompat.getColor(context, R.color.colorPrimary));
+        mTextPaint.setColor(ContextCompat.getColor(context, R.color.colorAccent));
+        mTextPaint.setTextSize(res.getDimension(R.dimen.history_section_text_size));
+    }
+
+    @Override
+    public void getItemOffsets(@NonNull Rect outRect, @NonNull View view,
+                               @NonNull RecyclerView parent, @NonNull RecyclerView.State state) {
+        int position = parent.getChildAdapterPosition(view);
+        outRect.set(0, isSectionStart(position) ? mHeight : 0, 0, 0);
+    }
+
+    @Override
+    public void onDraw(@NonNull Canvas c, @NonNull RecyclerView parent,
+                       @NonNull RecyclerView.State state) {
+        for (int i = 0; i < parent.getChildCount(); i++) {
+            View child = parent.getChildAt(i);
+            int position = parent.getChildAdapterPosition(child);
+            if (isSectionStart(position)) {
+                int bottom = child.getTop() + (int) child.getTranslationY();
+                drawHeader(c, parent, mAdapter.getSectionAt(position), bottom - mHeight);
+            }
+        }
+    }
+
+    @Override
+    public void onDrawOver(@NonNull Canvas c, @NonNull RecyclerView parent,
+                           @NonNull RecyclerView.State state) {
+        View first = parent.getChildAt(0);
+        if (first == null) {
+            return;
+        }
+        int position = parent.getChildAdapterPosition(first);
+        HistoryPagedSource.Section section = mAdapter.getSectionAt(position);
+        if (section == null) {
+            return;
+        }
+
+        // Pushed up by the header of the next section
+        int top = 0;
+        for (int i = 1; i < parent.getChildCount(); i++) {
+            View child = parent.getChildAt(i);
+            if (isSectionStart(parent.getChildAdapterPosition(child))) {
+                top = Math.min(0, child.getTop() - 2 * mHeight);
+                break;
+            }
+        }
+        drawHeader(c, parent, section, top);
+    }
+
+    private boolean isSectionStart(int position) {
+        if (position == RecyclerView.NO_POSITION) {
+            return false;
+        }
+        HistoryPagedSource.Section section = mAdapter.getSectionAt(position);
+        return section != null && section.position == position;
+    }
+
+    private void drawHeader(@NonNull Canvas c, @NonNull RecyclerView parent,
+                            @NonNull HistoryPagedSource.Section section, int top) {
+        c.drawRect(0, top, parent.getWidth(), top + mHeight, mBackgroundPaint);
+        float baseline = top + (mHeight - mTextPaint.ascent() - mTextPaint.descent()) / 2;
+        c.drawText(section.label, mPadding, baseline, mTextPaint);
+    }
+}
@@ -23,7 +23,8 @@ import androidx.annotation.NonNull;
  */
 class BaiduSuggestionProvider extends SuggestionProvider {
     BaiduSuggestionProvider() {
-        super("UTF-8");
+        // The servers are far away for most of the users, be more patient
+        super("UTF-8", 5000, 5000);
     }
 
     @NonNull
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.core.net.ConnectivityManagerCompat;
+
+import org.lineageos.jelly.utils.PrefsUtils;
+import org.lineageos.jelly.utils.PrefsUtils.SuggestionProviderType;
+import org.lineageos.jelly.utils.UrlUtils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gets the network ready for what the user is about to type: the connection
+ * to the suggestion provider is opened ahead of the first keystroke and the
+ * host of the search engine is resolved ahead of the search.
+ * The search engine only gets a DNS lookup, the page is loaded by the WebView
+ * network stack which can't reuse our connections.
+ */
+public final class ConnectionPrewarmer {
+    private static final String TAG = "ConnectionPrewarmer";
+    // Pooled connections are kept alive for a few minutes, don't warm them more often
+    private static final long MIN_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static ConnectionPrewarmer sInstance;
+
+    private final Context mContext;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Map<String, Long> mLastWarmed = new HashMap<>();
+
+    private ConnectionPrewarmer(@NonNull Context context) {
+        mContext = context;
+    }
+
+    @NonNull
+    public static synchronized ConnectionPrewarmer getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new ConnectionPrewarmer(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Warm up the connections in the background, unless the network is metered.
+     * Must not be called for incognito tabs.
+     */
+    public void prewarm() {
+        ConnectivityManager cm = (ConnectivityManager)
+                mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return;
+        }
+        NetworkInfo info = cm.getActiveNetworkInfo();
+        if (info == null || !info.isConnected() ||
+                ConnectivityManagerCompat.isActiveNetworkMetered(cm)) {
+            return;
+        }
+
+        SuggestionProviderType type = PrefsUtils.getSuggestionProvider(mContext);
+        String searchUrl = UrlUtils.getFormattedUri(PrefsUtils.getSearchEngine(mContext), "");
+        String searchHost = searchUrl != null ? Uri.parse(searchUrl).getHost() : null;
+
+        mExecutor.execute(() -> {
+            SuggestionProvider provider = SuggestionProviders.get(type);
+            if (provider != null) {
+                String host = provider.getHost();
+                if (host != null && shouldWarm(host)) {
+                    provider.prewarm();
+                }
+            }
+            if (searchHost != null && shouldWarm(searchHost)) {
+                resolve(searchHost);
+            }
+        });
+    }
+
+    private boolean shouldWarm(@NonNull String host) {
+        long now = SystemClock.elapsedRealtime();
+        Long last = mLastWarmed.get(host);
+        if (last != null && now - last < MIN_INTERVAL_MS) {
+            return false;
+        }
+        mLastWarmed.put(host, now);
+        return true;
+    }
+
+    private static void resolve(@NonNull String host) {
+        try {
+            InetAddress.getAllByName(host);
+        } catch (UnknownHostException e) {
+            Log.d(TAG, "Unable to resolve " + host, e);
+        }
+    }
+}
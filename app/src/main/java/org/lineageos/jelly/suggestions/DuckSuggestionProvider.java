@@ -16,10 +16,11 @@
 
 package org.lineageos.jelly.suggestions;
 
+import android.util.JsonReader;
+
 import androidx.annotation.NonNull;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import java.io.IOException;
 
 /**
  * The search suggestions provider for the DuckDuckGo search engine.
@@ -37,13 +38,22 @@ class DuckSuggestionProvider extends SuggestionProvider {
     }
 
     @Override
-    protected void parseResults(@NonNull String content,
-                                @NonNull ResultCallback callback) throws Exception {
-        JSONArray jsonArray = new JSONArray(content);
-        for (int n = 0, size = jsonArray.length(); n < size; n++) {
-            JSONObject obj = jsonArray.getJSONObject(n);
-            String suggestion = obj.getString("phrase");
-            if (!callback.addResult(suggestion)) {
+    protected void parseResults(@NonNull JsonReader reader,
+                                @NonNull ResultCallback callback) throws IOException {
+        // [{"phrase": "suggestion"}, ...]
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String suggestion = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("phrase".equals(reader.nextName())) {
+                    suggestion = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (suggestion != null && !callback.addResult(suggestion)) {
                 break;
             }
         }
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+/**
+ * Keeps a smoothed estimate of how long a provider takes to answer, the
+ * same way TCP estimates round trip times, and derives from it how long
+ * to wait before hedging a request to another provider.
+ */
+class LatencyTracker {
+    private static final long INITIAL_BUDGET_MS = 400;
+    private static final long MIN_BUDGET_MS = 150;
+    private static final long MAX_BUDGET_MS = 1500;
+
+    private float mAverage = -1;
+    private float mDeviation;
+
+    synchronized void record(long latencyMs) {
+        if (mAverage < 0) {
+            mAverage = latencyMs;
+            mDeviation = latencyMs / 2f;
+        } else {
+            mDeviation += (Math.abs(latencyMs - mAverage) - mDeviation) / 4f;
+            mAverage += (latencyMs - mAverage) / 8f;
+        }
+    }
+
+    /**
+     * Record a request that was cancelled before it was answered. It took at
+     * least that long: only learning from the requests that completed would
+     * leave out the slow ones, and the budget would drift low.
+     */
+    synchronized void recordCancelled(long elapsedMs) {
+        if (elapsedMs > mAverage) {
+            record(elapsedMs);
+        }
+    }
+
+    /**
+     * @return how long a request can take before it's considered slower than usual.
+     */
+    synchronized long getHedgeBudget() {
+        if (mAverage < 0) {
+            return INITIAL_BUDGET_MS;
+        }
+        long budget = (long) (mAverage + 2 * mDeviation);
+        return Math.max(MIN_BUDGET_MS, Math.min(MAX_BUDGET_MS, budget));
+    }
+}
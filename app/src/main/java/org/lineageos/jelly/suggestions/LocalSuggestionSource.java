@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+
+import org.lineageos.jelly.favorite.FavoriteProvider;
+import org.lineageos.jelly.history.HistoryProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Suggests pages from the history and the favorites, without any network
+ * round trip. Urls and title words of the most visited history entries and
+ * of all the favorites are kept in a sorted in-memory index that is rebuilt
+ * lazily whenever one of the two providers changes.
+ */
+class LocalSuggestionSource {
+    private static final int MAX_HISTORY_ENTRIES = 2000;
+    private static final int MAX_RESULTS = 3;
+
+    private static LocalSuggestionSource sInstance;
+
+    private final ContentResolver mResolver;
+    private volatile boolean mDirty = true;
+    private Index mIndex;
+
+    private LocalSuggestionSource(@NonNull Context context) {
+        mResolver = context.getContentResolver();
+
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mDirty = true;
+            }
+        };
+        mResolver.registerContentObserver(HistoryProvider.Columns.CONTENT_URI, true, observer);
+        mResolver.registerContentObserver(FavoriteProvider.Columns.CONTENT_URI, true, observer);
+    }
+
+    @NonNull
+    static synchronized LocalSuggestionSource getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new LocalSuggestionSource(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Find the pages matching a query.
+     * NOTE: This may query the providers, do not call it on the UI thread.
+     *
+     * @param query the normalized query.
+     * @return the best matches, ranked by relevance.
+     */
+    @NonNull
+    synchronized List<SuggestionItem> lookup(@NonNull String query) {
+        if (mDirty || mIndex == null) {
+            mDirty = false;
+            mIndex = buildIndex();
+        }
+        return mIndex.lookup(query, System.currentTimeMillis());
+    }
+
+    @NonNull
+    private Index buildIndex() {
+        Map<String, Entry> entries = new HashMap<>();
+
+        Uri historyUri = HistoryProvider.Columns.TOP_URI.buildUpon()
+                .appendQueryParameter(HistoryProvider.Columns.QUERY_PARAMETER_LIMIT,
+                        String.valueOf(MAX_HISTORY_ENTRIES))
+                .build();
+        try (Cursor cursor = mResolver.query(historyUri, new String[]{
+                        HistoryProvider.Columns.URL, HistoryProvider.Columns.TITLE,
+                        HistoryProvider.Columns.FRECENCY},
+                null, null, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                String url = cursor.getString(0);
+                if (url != null && !entries.containsKey(url)) {
+                    entries.put(url, new Entry(url, cursor.getString(1), cursor.getDouble(2)));
+                }
+            }
+        }
+
+        try (Cursor cursor = mResolver.query(FavoriteProvider.Columns.CONTENT_URI, new String[]{
+                        FavoriteProvider.Columns.URL, FavoriteProvider.Columns.TITLE},
+                null, null, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                String url = cursor.getString(0);
+                if (url == null) {
+                    continue;
+                }
+                Entry entry = entries.get(url);
+                if (entry == null) {
+                    entry = new Entry(url, cursor.getString(1), Double.NaN);
+                    entries.put(url, entry);
+                }
+                entry.favorite = true;
+            }
+        }
+
+        return new Index(new ArrayList<>(entries.values()));
+    }
+
+    /**
+     * Strip the parts of an url nobody types.
+     */
+    @NonNull
+    private static String stripUrl(@NonNull String url) {
+        String stripped = url.toLowerCase(Locale.ROOT);
+        int schemeEnd = stripped.indexOf("://");
+        if (schemeEnd >= 0) {
+            stripped = stripped.substring(schemeEnd + 3);
+        }
+        if (stripped.startsWith("www.")) {
+            stripped = stripped.substring(4);
+        }
+        return stripped;
+    }
+
+    static class Entry {
+        final String url;
+        final String strippedUrl;
+        final String searchableText;
+        // NaN when the page is not in the history
+        final double frecency;
+        boolean favorite;
+
+        Entry(String url, String title, double frecency) {
+            this.url = url;
+            this.strippedUrl = stripUrl(url);
+            this.searchableText = TextUtils.isEmpty(title) ? strippedUrl
+                    : strippedUrl + ' ' + title.toLowerCase(Locale.getDefault());
+            this.frecency = frecency;
+        }
+    }
+
+    static class Index {
+        private final List<Entry> mEntries;
+        // Sorted keys, with the position of the entry they belong to
+        private final String[] mKeys;
+        private final int[] mKeyEntries;
+
+        Index(List<Entry> entries) {
+            mEntries = entries;
+
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                // The url itself, whole so that it can be completed, and each
+                // word of the title
+                keys.add(entry.strippedUrl + '\u0000' + i);
+                String title = entry.searchableText.substring(entry.strippedUrl.length());
+                for (String key : title.split("[\\s\\p{Punct}&&[^.]]+")) {
+                    if (!key.isEmpty()) {
+                        keys.add(key + '\u0000' + i);
+                    }
+                }
+            }
+            String[] sorted = keys.toArray(new String[0]);
+            Arrays.sort(sorted);
+
+            mKeys = new String[sorted.length];
+            mKeyEntries = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                int separator = sorted[i].lastIndexOf('\u0000');
+                mKeys[i] = sorted[i].substring(0, separator);
+                mKeyEntries[i] = Integer.parseInt(sorted[i].substring(separator + 1));
+            }
+        }
+
+        @NonNull
+        List<SuggestionItem> lookup(@NonNull String query, long now) {
+            String[] tokens = query.split(" ");
+            String first = tokens[0];
+            if (first.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            int start = Arrays.binarySearch(mKeys, first);
+            if (start < 0) {
+                start = -start - 1;
+            } else {
+                // Keys are not unique, go back to the first matching one
+                while (start > 0 && mKeys[start - 1].equals(first)) {
+                    start--;
+                }
+            }
+
+            boolean[] seen = new boolean[mEntries.size()];
+            List<SuggestionItem> results = new ArrayList<>();
+            for (int i = start; i < mKeys.length && mKeys[i].startsWith(first); i++) {
+                int position = mKeyEntries[i];
+                if (seen[position]) {
+                    continue;
+                }
+                seen[position] = true;
+
+                Entry entry = mEntries.get(position);
+                if (!matchesAll(entry, tokens)) {
+                    continue;
+                }
+                results.add(new SuggestionItem(entry.url, entry.favorite
+                        ? SuggestionItem.Type.FAVORITE : SuggestionItem.Type.HISTORY,
+                        score(entry, query, now)));
+            }
+
+            Collections.sort(results, (a, b) -> Float.compare(b.score, a.score));
+            return results.size() > MAX_RESULTS ? results.subList(0, MAX_RESULTS) : results;
+        }
+
+        private static boolean matchesAll(Entry entry, String[] tokens) {
+            for (int i = 1; i < tokens.length; i++) {
+                if (!entry.searchableText.contains(tokens[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static float score(Entry entry, String query, long now) {
+            // Typing the beginning of the url is a much stronger signal than a title word
+            float score = entry.strippedUrl.startsWith(query) ? 1f : 0.5f;
+            if (entry.favorite) {
+                score += 1f;
+            }
+            if (!Double.isNaN(entry.frecency)) {
+                // Grows with the visits, but can't outweigh the match itself
+                double weight = HistoryProvider.getVisitWeight(entry.frecency, now);
+                score += (float) (weight / (1 + weight));
+            }
+            return score;
+        }
+    }
+}
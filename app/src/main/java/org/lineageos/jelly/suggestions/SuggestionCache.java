@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.lineageos.jelly.utils.PrefsUtils.SuggestionProviderType;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A bounded, process-wide LRU cache of search suggestions, keyed by
+ * provider, language and normalized query. Entries are backed by a
+ * {@link SuggestionDiskStore}, so they're still available after a restart.
+ */
+class SuggestionCache {
+    private static final int MAX_ENTRIES = 128;
+    private static final String STORE_FILE_NAME = "suggestions.bin";
+    // Directory of the HttpResponseCache this store replaced
+    private static final String LEGACY_CACHE_DIR = "suggestion_responses";
+
+    private static SuggestionCache sInstance;
+
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    @NonNull
+    private final SuggestionDiskStore mStore;
+
+    private SuggestionCache(@NonNull SuggestionDiskStore store) {
+        mStore = store;
+    }
+
+    @NonNull
+    static synchronized SuggestionCache getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            File cacheDir = context.getApplicationContext().getCacheDir();
+            deleteLegacyCache(new File(cacheDir, LEGACY_CACHE_DIR));
+            sInstance = new SuggestionCache(
+                    new SuggestionDiskStore(new File(cacheDir, STORE_FILE_NAME)));
+        }
+        return sInstance;
+    }
+
+    private static void deleteLegacyCache(@NonNull File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    /**
+     * Normalize a raw query so that equivalent inputs share the same cache entry.
+     *
+     * @param query the query as typed by the user.
+     * @return the lower cased query with collapsed whitespace.
+     */
+    @NonNull
+    static String normalize(@NonNull String query) {
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.getDefault());
+    }
+
+    /**
+     * Look up the results cached for exactly this query.
+     * NOTE: This may read from disk, do not call it on the UI thread.
+     *
+     * @return the cached suggestions, or null if the query was never fetched.
+     */
+    @Nullable
+    synchronized List<String> get(@NonNull SuggestionProviderType type,
+                                  @NonNull String language, @NonNull String query) {
+        Entry entry = getEntry(key(type, language, query));
+        return entry != null ? entry.results : null;
+    }
+
+    /**
+     * Look for the longest cached prefix of the query whose result set is
+     * complete, i.e. the provider returned less than the maximum number of
+     * suggestions for it, and filter its results down to the given query.
+     * Only the entries in memory are looked at, the prefixes of the query
+     * are the ones typed just before it. This also keeps the disk store
+     * statistics at one miss per lookup.
+     *
+     * @return the locally filtered suggestions, or null if no usable prefix is cached.
+     */
+    @Nullable
+    synchronized List<String> getFromPrefix(@NonNull SuggestionProviderType type,
+                                            @NonNull String language, @NonNull String query) {
+        for (int end = query.length() - 1; end > 0; end--) {
+            Entry entry = mEntries.get(key(type, language, query.substring(0, end)));
+            if (entry == null) {
+                continue;
+            }
+            if (!entry.complete) {
+                return null;
+            }
+            List<String> filtered = new ArrayList<>(entry.results.size());
+            for (String suggestion : entry.results) {
+                if (suggestion.toLowerCase(Locale.getDefault()).contains(query)) {
+                    filtered.add(suggestion);
+                }
+            }
+            return filtered;
+        }
+        return null;
+    }
+
+    synchronized void put(@NonNull SuggestionProviderType type, @NonNull String language,
+                          @NonNull String query, @NonNull List<String> results) {
+        String key = key(type, language, query);
+        mEntries.put(key, new Entry(results));
+        mStore.put(key, results);
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+        mStore.clear();
+    }
+
+    synchronized void dump(@NonNull PrintWriter writer) {
+        writer.println("Suggestion cache: entries=" + mEntries.size());
+        mStore.dump(writer);
+    }
+
+    @Nullable
+    private Entry getEntry(@NonNull String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            List<String> results = mStore.get(key);
+            if (results != null) {
+                entry = new Entry(results);
+                mEntries.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    @NonNull
+    private static String key(@NonNull SuggestionProviderType type,
+                              @NonNull String language, @NonNull String query) {
+        return type.name() + '\u0000' + language + '\u0000' + query;
+    }
+
+    private static class Entry {
+        final List<String> results;
+        final boolean complete;
+
+        Entry(List<String> results) {
+            this.results = Collections.unmodifiableList(new ArrayList<>(results));
+            this.complete = results.size() < SuggestionProvider.MAX_RESULTS;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps search suggestions on disk so that they survive process death.
+ * The whole store is loaded in memory on first use, entries expire after a
+ * day and the least recently used ones are evicted when the store is full.
+ * Changes are written back in the background, replacing the file atomically.
+ */
+class SuggestionDiskStore {
+    private static final String TAG = "SuggestionDiskStore";
+    private static final int MAGIC = 0x4a534753; // "JSGS"
+    private static final int VERSION = 1;
+    private static final int MAX_ENTRIES = 1024;
+    private static final long TTL_MS = TimeUnit.DAYS.toMillis(1);
+    private static final long WRITE_DELAY_MS = 5000;
+    // Limits of the format: writeUTF() strings and a byte for the result count
+    private static final int MAX_UTF_LENGTH = 0xffff;
+    private static final int MAX_RESULTS = 0xff;
+
+    private static final ScheduledExecutorService sWriter =
+            Executors.newSingleThreadScheduledExecutor();
+
+    @NonNull
+    private final AtomicFile mFile;
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > MAX_ENTRIES) {
+                        mEvictions++;
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    private boolean mLoaded;
+    private boolean mWriteScheduled;
+
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+    private int mExpirations;
+    private long mFileSize;
+
+    SuggestionDiskStore(@NonNull File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * NOTE: The first call reads the store from disk, do not call it on the UI thread.
+     *
+     * @return the results stored for the key, or null if there are none or they expired.
+     */
+    @Nullable
+    synchronized List<String> get(@NonNull String key) {
+        load();
+        Entry entry = mEntries.get(key);
+        if (entry != null && isExpired(entry, System.currentTimeMillis())) {
+            mEntries.remove(key);
+            mExpirations++;
+            scheduleWrite();
+            entry = null;
+        }
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return entry.results;
+    }
+
+    synchronized void put(@NonNull String key, @NonNull List<String> results) {
+        load();
+        mEntries.put(key, new Entry(System.currentTimeMillis(),
+                Collections.unmodifiableList(new ArrayList<>(results))));
+        scheduleWrite();
+    }
+
+    /**
+     * Drop all the entries and delete the file.
+     */
+    synchronized void clear() {
+        // There's nothing left to read back
+        mLoaded = true;
+        mEntries.clear();
+        // After any write in progress
+        sWriter.execute(mFile::delete);
+    }
+
+    synchronized void dump(@NonNull PrintWriter writer) {
+        writer.println("Suggestion disk store:");
+        writer.println("  entries=" + mEntries.size() + " file=" + mFileSize + "B");
+        writer.println("  hits=" + mHits + " misses=" + mMisses +
+                " evictions=" + mEvictions + " expirations=" + mExpirations);
+    }
+
+    private static boolean isExpired(@NonNull Entry entry, long now) {
+        // Also drop entries from the future, the clock was changed
+        return entry.storedAt > now || now - entry.storedAt > TTL_MS;
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(mFile.openRead()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Ignoring store with unknown format");
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                long storedAt = in.readLong();
+                int size = in.readUnsignedByte();
+                List<String> results = new ArrayList<>(size);
+                for (int j = 0; j < size; j++) {
+                    results.add(in.readUTF());
+                }
+                Entry entry = new Entry(storedAt, Collections.unmodifiableList(results));
+                if (isExpired(entry, now)) {
+                    mExpirations++;
+                } else {
+                    // Entries are stored least recently used first
+                    mEntries.put(key, entry);
+                }
+            }
+            mFileSize = mFile.getBaseFile().length();
+        } catch (FileNotFoundException e) {
+            // Nothing stored yet
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read the stored suggestions", e);
+            mEntries.clear();
+        }
+    }
+
+    private void scheduleWrite() {
+        if (!mWriteScheduled) {
+            mWriteScheduled = true;
+            sWriter.schedule(this::write, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void write() {
+        List<Map.Entry<String, Entry>> snapshot;
+        synchronized (this) {
+            mWriteScheduled = false;
+            snapshot = new ArrayList<>(mEntries.entrySet());
+        }
+
+        long now = System.currentTimeMillis();
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            Iterator<Map.Entry<String, Entry>> iterator = snapshot.iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> item = iterator.next();
+                if (isExpired(item.getValue(), now)) {
+                    iterator.remove();
+                } else if (!isWritable(item.getKey(), item.getValue())) {
+                    // Such a query is no use to anyone, rather than failing the whole write
+                    Log.w(TAG, "Skipping an entry too large to store");
+                    iterator.remove();
+                }
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> item : snapshot) {
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeLong(entry.storedAt);
+                out.writeByte(entry.results.size());
+                for (String result : entry.results) {
+                    out.writeUTF(result);
+                }
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to store the suggestions", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+            return;
+        }
+
+        synchronized (this) {
+            mFileSize = mFile.getBaseFile().length();
+            Log.d(TAG, "Stored " + snapshot.size() + " entries (" + mFileSize + "B), hits=" +
+                    mHits + " misses=" + mMisses + " evictions=" + mEvictions);
+        }
+    }
+
+    /**
+     * Whether writeUTF() can encode the key and all the results,
+     * i.e. none of them takes more than 64KB in modified UTF-8.
+     */
+    private static boolean isWritable(@NonNull String key, @NonNull Entry entry) {
+        if (getUtfLength(key) > MAX_UTF_LENGTH || entry.results.size() > MAX_RESULTS) {
+            return false;
+        }
+        for (String result : entry.results) {
+            if (getUtfLength(result) > MAX_UTF_LENGTH) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getUtfLength(@NonNull String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != 0 && c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+            if (length > MAX_UTF_LENGTH) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    private static class Entry {
+        final long storedAt;
+        final List<String> results;
+
+        Entry(long storedAt, List<String> results) {
+            this.storedAt = storedAt;
+            this.results = results;
+        }
+    }
+}
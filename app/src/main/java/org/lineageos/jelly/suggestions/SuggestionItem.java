@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+import android.graphics.Typeface;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A single entry of the suggestions dropdown, either a search suggestion
+ * from a {@link SuggestionProvider} or a page coming from the history
+ * or the favorites.
+ */
+class SuggestionItem {
+    enum Type {
+        SEARCH, HISTORY, FAVORITE
+    }
+
+    @NonNull
+    final String text;
+    @NonNull
+    final Type type;
+    /**
+     * Relevance of the item, items with a higher score are shown first.
+     */
+    final float score;
+    /**
+     * The text to show, with the parts matching the query in bold.
+     * Computed off the UI thread by {@link #highlight(String[])}.
+     */
+    @NonNull
+    CharSequence display;
+
+    SuggestionItem(@NonNull String text, @NonNull Type type, float score) {
+        this.text = text;
+        this.type = type;
+        this.score = score;
+        this.display = text;
+    }
+
+    /**
+     * Make each occurrence of the tokens bold.
+     *
+     * @param tokens the lower cased words of the query.
+     */
+    void highlight(@NonNull String[] tokens) {
+        String lcText = text.toLowerCase(Locale.getDefault());
+        SpannableString spannable = null;
+        for (String token : tokens) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            int pos = lcText.indexOf(token);
+            while (pos >= 0) {
+                if (spannable == null) {
+                    spannable = new SpannableString(text);
+                }
+                spannable.setSpan(new StyleSpan(Typeface.BOLD), pos, pos + token.length(),
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                pos = lcText.indexOf(token, pos + token.length());
+            }
+        }
+        display = spannable != null ? spannable : text;
+    }
+
+    /**
+     * Merge local and remote suggestions under a single ranking.
+     * Remote suggestions score between 1 and 0.6 depending on the position the
+     * provider returned them at, so that strong local matches go first
+     * and weak ones after the best search suggestions.
+     *
+     * @param local  the local suggestions.
+     * @param remote the search suggestions, in the order they were returned, or null.
+     * @return the ranked suggestions, without duplicates.
+     */
+    @NonNull
+    static List<SuggestionItem> merge(@NonNull List<SuggestionItem> local,
+                                      List<String> remote) {
+        List<SuggestionItem> items = new ArrayList<>(local);
+        if (remote != null) {
+            for (int i = 0; i < remote.size(); i++) {
+                items.add(new SuggestionItem(remote.get(i), Type.SEARCH,
+                        1f - 0.4f * i / Math.max(1, remote.size() - 1)));
+            }
+        }
+        Collections.sort(items, (a, b) -> Float.compare(b.score, a.score));
+
+        Set<String> seen = new HashSet<>();
+        List<SuggestionItem> merged = new ArrayList<>(items.size());
+        for (SuggestionItem item : items) {
+            if (seen.add(item.text.toLowerCase(Locale.getDefault()))) {
+                merged.add(item);
+            }
+        }
+        return merged;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        // Used by the url bar when the item is selected
+        return text;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency histograms and counters of the suggestion pipeline, per provider.
+ * They're kept in memory, saved when the browser goes to the background
+ * and can be inspected with
+ * {@code adb shell dumpsys activity org.lineageos.jelly/.MainActivity}.
+ */
+public final class SuggestionMetrics {
+    private static final String TAG = "SuggestionMetrics";
+    private static final String FILE_NAME = "suggestion_metrics.bin";
+    private static final int VERSION = 1;
+    // Upper bounds of the histogram buckets, in milliseconds. The last bucket is unbounded
+    private static final long[] BUCKETS = {10, 25, 50, 100, 200, 400, 800, 1600, 3200};
+
+    enum Timing {
+        // DNS resolution, TCP and TLS handshakes, unless the connection was pooled
+        CONNECT,
+        // From the request being sent to the response headers being received
+        FIRST_BYTE,
+        PARSE,
+        // From the keystroke to the dropdown being updated
+        END_TO_END
+    }
+
+    enum Counter {
+        REQUESTS,
+        ERRORS,
+        TIMEOUTS,
+        CANCELLED,
+        CACHE_HITS,
+        PREFIX_HITS,
+        CACHE_MISSES,
+        STALE_DROPS
+    }
+
+    private static SuggestionMetrics sInstance;
+
+    private final Map<String, ProviderMetrics> mProviders = new TreeMap<>();
+    private boolean mRestored;
+
+    private SuggestionMetrics() {
+    }
+
+    @NonNull
+    public static synchronized SuggestionMetrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new SuggestionMetrics();
+        }
+        return sInstance;
+    }
+
+    synchronized void record(@NonNull String provider, @NonNull Timing timing, long ms) {
+        ProviderMetrics metrics = get(provider);
+        int bucket = 0;
+        while (bucket < BUCKETS.length && ms > BUCKETS[bucket]) {
+            bucket++;
+        }
+        metrics.histograms[timing.ordinal()][bucket]++;
+        metrics.sums[timing.ordinal()] += ms;
+    }
+
+    synchronized void increment(@NonNull String provider, @NonNull Counter counter) {
+        get(provider).counters[counter.ordinal()]++;
+    }
+
+    @NonNull
+    private ProviderMetrics get(@NonNull String provider) {
+        ProviderMetrics metrics = mProviders.get(provider);
+        if (metrics == null) {
+            metrics = new ProviderMetrics();
+            mProviders.put(provider, metrics);
+        }
+        return metrics;
+    }
+
+    public synchronized void dump(@NonNull Context context, @NonNull PrintWriter writer) {
+        restore(context);
+        writer.println("Suggestion metrics:");
+        for (Map.Entry<String, ProviderMetrics> entry : mProviders.entrySet()) {
+            ProviderMetrics metrics = entry.getValue();
+            writer.println("  " + entry.getKey() + ":");
+
+            StringBuilder counters = new StringBuilder("   ");
+            for (Counter counter : Counter.values()) {
+                counters.append(' ').append(counter.name().toLowerCase(Locale.ROOT))
+                        .append('=').append(metrics.counters[counter.ordinal()]);
+            }
+            long hits = metrics.counters[Counter.CACHE_HITS.ordinal()] +
+                    metrics.counters[Counter.PREFIX_HITS.ordinal()];
+            long lookups = hits + metrics.counters[Counter.CACHE_MISSES.ordinal()];
+            if (lookups > 0) {
+                counters.append(" hit_ratio=").append(hits * 100 / lookups).append('%');
+            }
+            writer.println(counters);
+
+            for (Timing timing : Timing.values()) {
+                long[] histogram = metrics.histograms[timing.ordinal()];
+                long count = 0;
+                for (long value : histogram) {
+                    count += value;
+                }
+                if (count == 0) {
+                    continue;
+                }
+                writer.println("    " + timing.name().toLowerCase(Locale.ROOT) +
+                        ": count=" + count +
+                        " avg=" + metrics.sums[timing.ordinal()] / count + "ms" +
+                        " p50<=" + percentile(histogram, count, 50) +
+                        " p90<=" + percentile(histogram, count, 90) +
+                        " p99<=" + percentile(histogram, count, 99));
+            }
+        }
+        writer.println();
+
+        SuggestionCache.getInstance(context).dump(writer);
+    }
+
+    @NonNull
+    private static String percentile(long[] histogram, long count, int percentile) {
+        long threshold = (count * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            seen += histogram[i];
+            if (seen >= threshold) {
+                return BUCKETS[i] + "ms";
+            }
+        }
+        return "inf";
+    }
+
+    /**
+     * Save the metrics, so that they're not lost when the process dies.
+     * NOTE: This is a blocking operation, do not call it on the UI thread.
+     */
+    public synchronized void save(@NonNull Context context) {
+        restore(context);
+        AtomicFile file = getFile(context);
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(VERSION);
+            out.writeInt(mProviders.size());
+            for (Map.Entry<String, ProviderMetrics> entry : mProviders.entrySet()) {
+                ProviderMetrics metrics = entry.getValue();
+                out.writeUTF(entry.getKey());
+                for (long[] histogram : metrics.histograms) {
+                    for (long value : histogram) {
+                        out.writeLong(value);
+                    }
+                }
+                for (long sum : metrics.sums) {
+                    out.writeLong(sum);
+                }
+                for (long counter : metrics.counters) {
+                    out.writeLong(counter);
+                }
+            }
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save the metrics", e);
+            if (fos != null) {
+                file.failWrite(fos);
+            }
+        }
+    }
+
+    /**
+     * Add the metrics saved by a previous process to the current ones.
+     */
+    private void restore(@NonNull Context context) {
+        if (mRestored) {
+            return;
+        }
+        mRestored = true;
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(getFile(context).openRead()))) {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                ProviderMetrics metrics = get(in.readUTF());
+                for (long[] histogram : metrics.histograms) {
+                    for (int j = 0; j < histogram.length; j++) {
+                        histogram[j] += in.readLong();
+                    }
+                }
+                for (int j = 0; j < metrics.sums.length; j++) {
+                    metrics.sums[j] += in.readLong();
+                }
+                for (int j = 0; j < metrics.counters.length; j++) {
+                    metrics.counters[j] += in.readLong();
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing saved yet
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to restore the metrics", e);
+        }
+    }
+
+    @NonNull
+    private static AtomicFile getFile(@NonNull Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    private static class ProviderMetrics {
+        final long[][] histograms = new long[Timing.values().length][BUCKETS.length + 1];
+        final long[] sums = new long[Timing.values().length];
+        final long[] counters = new long[Counter.values().length];
+    }
+}
@@ -16,26 +16,28 @@
 
 package org.lineageos.jelly.suggestions;
 
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.JsonReader;
 import android.util.Log;
+import android.util.MalformedJsonException;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import org.json.JSONArray;
-import org.lineageos.jelly.utils.FileUtils;
-
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.TimeUnit;
 
 /**
  * The base search suggestions API. Provides common
@@ -43,21 +45,37 @@ import java.util.concurrent.TimeUnit;
  * suggestions provider.
  */
 abstract class SuggestionProvider {
+    static final int MAX_RESULTS = 5;
     private static final String TAG = "SuggestionProvider";
-    private static final long INTERVAL_DAY = TimeUnit.DAYS.toSeconds(1);
     private static final String DEFAULT_LANGUAGE = "en";
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 3000;
+    private static final int DEFAULT_READ_TIMEOUT_MS = 3000;
+    private static final int MAX_DRAIN_BYTES = 16 * 1024;
     @NonNull
     private final String mEncoding;
     @NonNull
     private final String mLanguage;
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+    @NonNull
+    private final LatencyTracker mLatency = new LatencyTracker();
+    @NonNull
+    private final String mName;
 
     SuggestionProvider(@NonNull String encoding) {
+        this(encoding, DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+    }
+
+    SuggestionProvider(@NonNull String encoding, int connectTimeout, int readTimeout) {
         mEncoding = encoding;
-        mLanguage = getLanguage();
+        mLanguage = getDefaultLanguage();
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+        mName = getClass().getSimpleName().replace("SuggestionProvider", "");
     }
 
     @NonNull
-    private static String getLanguage() {
+    static String getDefaultLanguage() {
         String language = Locale.getDefault().getLanguage();
         if (TextUtils.isEmpty(language)) {
             language = DEFAULT_LANGUAGE;
@@ -65,6 +83,30 @@ abstract class SuggestionProvider {
         return language;
     }
 
+    /**
+     * @return the language suggestions are requested in.
+     */
+    @NonNull
+    final String getLanguage() {
+        return mLanguage;
+    }
+
+    /**
+     * @return the name metrics of this provider are recorded under.
+     */
+    @NonNull
+    final String getName() {
+        return mName;
+    }
+
+    /**
+     * @return the response times of this provider.
+     */
+    @NonNull
+    final LatencyTracker getLatency() {
+        return mLatency;
+    }
+
     /**
      * Create a URL for the given query in the given language.
      *
@@ -77,33 +119,50 @@ abstract class SuggestionProvider {
                                              @NonNull String language);
 
     /**
-     * Parse the results of an input stream into a list of {@link String}.
+     * Parse the response as it is read from the network. Implementations must
+     * stop reading as soon as the callback returns false.
+     * The default implementation handles the OpenSearch format,
+     * {@code ["query", ["suggestion", ...], ...]}.
      *
-     * @param content  the raw input to parse.
+     * @param reader   the reader positioned at the start of the response.
      * @param callback the callback to invoke for each received suggestion
-     * @throws Exception throw an exception if anything goes wrong.
+     * @throws IOException if the response can't be read or is malformed.
      */
-    void parseResults(@NonNull String content,
-                      @NonNull ResultCallback callback) throws Exception {
-        JSONArray respArray = new JSONArray(content);
-        JSONArray jsonArray = respArray.getJSONArray(1);
-        for (int n = 0, size = jsonArray.length(); n < size; n++) {
-            String suggestion = jsonArray.getString(n);
-            if (!callback.addResult(suggestion)) {
+    void parseResults(@NonNull JsonReader reader,
+                      @NonNull ResultCallback callback) throws IOException {
+        reader.beginArray();
+        // The query the suggestions were made for
+        reader.skipValue();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (!callback.addResult(reader.nextString())) {
                 break;
             }
         }
     }
 
+    /**
+     * Retrieves the results for a query, without a way to cancel the request.
+     *
+     * @see #fetchResults(String, Request)
+     */
+    @Nullable
+    final List<String> fetchResults(@NonNull final String rawQuery) {
+        return fetchResults(rawQuery, new Request());
+    }
+
     /**
      * Retrieves the results for a query.
      *
      * @param rawQuery the raw query to retrieve the results for.
-     * @return a list of history items for the query.
+     * @param request  the handle to abort this fetch with, from another thread.
+     * @return a list of suggestions for the query, or null if they couldn't be
+     * downloaded or parsed. Only a non null result can be cached.
      */
-    @NonNull
-    final List<String> fetchResults(@NonNull final String rawQuery) {
-        List<String> filter = new ArrayList<>(5);
+    @Nullable
+    final List<String> fetchResults(@NonNull final String rawQuery,
+                                    @NonNull Request request) {
+        List<String> filter = new ArrayList<>(MAX_RESULTS);
 
         String query;
         try {
@@ -111,53 +170,157 @@ abstract class SuggestionProvider {
         } catch (UnsupportedEncodingException e) {
             Log.e(TAG, "Unable to encode the URL", e);
 
-            return filter;
+            return null;
         }
 
-        String content = downloadSuggestionsForQuery(query, mLanguage);
-        if (content == null) {
-            // There are no suggestions for this query, return an empty list.
-            return filter;
-        }
-        try {
-            parseResults(content, suggestion -> {
-                filter.add(suggestion);
-                return filter.size() < 5;
-            });
-        } catch (Exception e) {
-            Log.e(TAG, "Unable to parse results", e);
-        }
+        long start = SystemClock.elapsedRealtime();
+        boolean downloaded = downloadSuggestionsForQuery(query, mLanguage, request,
+                suggestion -> {
+                    filter.add(suggestion);
+                    return filter.size() < MAX_RESULTS;
+                });
 
+        // If the request failed, let the caller know the result is not cacheable.
+        if (!downloaded) {
+            return null;
+        }
+        mLatency.record(SystemClock.elapsedRealtime() - start);
         return filter;
     }
 
     /**
-     * This method downloads the search suggestions for the specific query.
+     * This method downloads the search suggestions for the specific query,
+     * parsing them while they're received.
      * NOTE: This is a blocking operation, do not fetchResults on the UI thread.
      *
-     * @param query the query to get suggestions for
-     * @return the cache file containing the suggestions
+     * @param query    the query to get suggestions for
+     * @param request  the handle the connection is made available to
+     * @param callback the callback to invoke for each received suggestion
+     * @return whether the response could be downloaded and parsed in full
      */
-    @Nullable
-    private String downloadSuggestionsForQuery(@NonNull String query,
-                                               @NonNull String language) {
+    private boolean downloadSuggestionsForQuery(@NonNull String query,
+                                                @NonNull String language,
+                                                @NonNull Request request,
+                                                @NonNull ResultCallback callback) {
+        SuggestionMetrics metrics = SuggestionMetrics.getInstance();
+        metrics.increment(mName, SuggestionMetrics.Counter.REQUESTS);
+        HttpURLConnection urlConnection = null;
         try {
             URL url = new URL(createQueryUrl(query, language));
 
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.addRequestProperty("Cache-Control",
-                    "max-age=" + INTERVAL_DAY + ", max-stale=" + INTERVAL_DAY);
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setConnectTimeout(mConnectTimeout);
+            urlConnection.setReadTimeout(mReadTimeout);
+            // Responses are cached by SuggestionCache, don't go through any HTTP cache
+            urlConnection.setUseCaches(false);
             urlConnection.addRequestProperty("Accept-Charset", mEncoding);
-            try (InputStream in = new BufferedInputStream(urlConnection.getInputStream())) {
-                return FileUtils.readStringFromStream(in, getEncoding(urlConnection));
+            if (!request.setConnection(urlConnection)) {
+                throw new IOException("Cancelled before connecting");
+            }
+            long start = SystemClock.elapsedRealtime();
+            urlConnection.connect();
+            long connected = SystemClock.elapsedRealtime();
+            metrics.record(mName, SuggestionMetrics.Timing.CONNECT, connected - start);
+            InputStream in = new BufferedInputStream(urlConnection.getInputStream());
+            long firstByte = SystemClock.elapsedRealtime();
+            metrics.record(mName, SuggestionMetrics.Timing.FIRST_BYTE, firstByte - connected);
+            boolean parsed = false;
+            boolean reusable = false;
+            try (JsonReader reader = new JsonReader(new InputStreamReader(in,
+                    getEncoding(urlConnection)))) {
+                parseResults(reader, callback);
+                parsed = true;
+                metrics.record(mName, SuggestionMetrics.Timing.PARSE,
+                        SystemClock.elapsedRealtime() - firstByte);
+                // Stop parsing once the callback has enough results, but consume the
+                // rest of the response: it lets the connection go back to the pool
+                // and stay warm for the next keystroke.
+                reusable = drain(in);
+            } catch (MalformedJsonException | IllegalStateException e) {
+                Log.e(TAG, "Unable to parse results", e);
+                metrics.increment(mName, SuggestionMetrics.Counter.ERRORS);
             } finally {
-                urlConnection.disconnect();
+                if (!reusable) {
+                    urlConnection.disconnect();
+                }
             }
+            // What was read of a malformed response, e.g. a captive portal page,
+            // would otherwise be cached as the complete answer
+            return parsed;
         } catch (IOException e) {
-            Log.e(TAG, "Problem getting search suggestions", e);
+            if (request.isCancelled()) {
+                Log.d(TAG, "Search suggestions request for " + query + " was cancelled");
+                metrics.increment(mName, SuggestionMetrics.Counter.CANCELLED);
+            } else {
+                Log.e(TAG, "Problem getting search suggestions", e);
+                metrics.increment(mName, e instanceof SocketTimeoutException
+                        ? SuggestionMetrics.Counter.TIMEOUTS
+                        : SuggestionMetrics.Counter.ERRORS);
+                if (urlConnection != null) {
+                    urlConnection.disconnect();
+                }
+            }
+        } finally {
+            request.setConnection(null);
         }
 
-        return null;
+        return false;
+    }
+
+    /**
+     * Consume what's left of a response, as long as it's reasonably small.
+     *
+     * @return whether the end of the response was reached.
+     */
+    private static boolean drain(@NonNull InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        int total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            total += read;
+            if (total > MAX_DRAIN_BYTES) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Open a connection to the provider, so that it is already resolved and
+     * handshaked, sitting in the connection pool, when the user starts typing.
+     * NOTE: This is a blocking operation, do not call it on the UI thread.
+     */
+    final void prewarm() {
+        HttpURLConnection urlConnection = null;
+        try {
+            URL url = new URL(createQueryUrl("", mLanguage));
+
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setConnectTimeout(mConnectTimeout);
+            urlConnection.setReadTimeout(mReadTimeout);
+            urlConnection.setUseCaches(false);
+            urlConnection.setRequestMethod("HEAD");
+            urlConnection.getResponseCode();
+            // Releases the connection to the pool
+            urlConnection.getInputStream().close();
+        } catch (IOException e) {
+            Log.d(TAG, "Unable to prewarm the connection", e);
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @return the host suggestions are requested to.
+     */
+    @Nullable
+    final String getHost() {
+        try {
+            return new URL(createQueryUrl("", mLanguage)).getHost();
+        } catch (MalformedURLException e) {
+            return null;
+        }
     }
 
     private String getEncoding(HttpURLConnection connection) {
@@ -167,6 +330,9 @@ abstract class SuggestionProvider {
         }
 
         String contentType = connection.getContentType();
+        if (contentType == null) {
+            return mEncoding;
+        }
         for (String value : contentType.split(";")) {
             value = value.trim();
             if (value.toLowerCase(Locale.US).startsWith("charset=")) {
@@ -180,4 +346,35 @@ abstract class SuggestionProvider {
     interface ResultCallback {
         boolean addResult(String suggestion);
     }
+
+    /**
+     * A single fetch, which can be aborted while the provider keeps serving
+     * the other tabs. The pending {@link #fetchResults(String, Request)}
+     * call then returns null.
+     */
+    static final class Request {
+        @Nullable
+        private HttpURLConnection mConnection;
+        private boolean mCancelled;
+
+        synchronized void cancel() {
+            mCancelled = true;
+            if (mConnection != null) {
+                mConnection.disconnect();
+                mConnection = null;
+            }
+        }
+
+        synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * @return false if the request was cancelled, the connection must not be made.
+         */
+        private synchronized boolean setConnection(@Nullable HttpURLConnection connection) {
+            mConnection = connection;
+            return !mCancelled;
+        }
+    }
 }
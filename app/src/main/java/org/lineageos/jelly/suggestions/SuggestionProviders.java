@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.lineageos.jelly.utils.PrefsUtils.SuggestionProviderType;
+
+import java.util.EnumMap;
+
+/**
+ * Process-wide registry of the suggestion providers. Each type is
+ * instantiated once and shared by every tab, so that its connections
+ * can be kept alive between keystrokes. An instance is rebuilt when the
+ * device language changes.
+ */
+final class SuggestionProviders {
+    private static final EnumMap<SuggestionProviderType, SuggestionProvider> sProviders =
+            new EnumMap<>(SuggestionProviderType.class);
+
+    private SuggestionProviders() {
+    }
+
+    @Nullable
+    static synchronized SuggestionProvider get(@NonNull SuggestionProviderType type) {
+        SuggestionProvider provider = sProviders.get(type);
+        if (provider == null ||
+                !provider.getLanguage().equals(SuggestionProvider.getDefaultLanguage())) {
+            provider = create(type);
+            if (provider != null) {
+                sProviders.put(type, provider);
+            }
+        }
+        return provider;
+    }
+
+    @Nullable
+    private static SuggestionProvider create(@NonNull SuggestionProviderType type) {
+        switch (type) {
+            case BAIDU:
+                return new BaiduSuggestionProvider();
+            case BING:
+                return new BingSuggestionProvider();
+            case DUCK:
+                return new DuckSuggestionProvider();
+            case GOOGLE:
+                return new GoogleSuggestionProvider();
+            case YAHOO:
+                return new YahooSuggestionProvider();
+        }
+        return null;
+    }
+}
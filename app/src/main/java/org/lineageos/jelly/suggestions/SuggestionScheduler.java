@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes sure only the latest query typed by the user gets served.
+ * Every keystroke starts a new generation: the requests that were in flight
+ * for the previous one are aborted, network fetches are debounced and
+ * results belonging to an older generation are dropped.
+ * <p>
+ * When a fallback provider is given, a request to the primary provider that
+ * takes longer than usual is hedged to the fallback one, and whichever answers
+ * first wins. In merge mode the answers of both are combined instead.
+ */
+class SuggestionScheduler {
+    private static final long DEBOUNCE_MS = 150;
+
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+
+    private final AtomicLong mGeneration = new AtomicLong();
+    private volatile long mQueryChangedAt;
+    // Providers are shared by every tab, only the requests of this one are tracked
+    private final Set<SuggestionProvider.Request> mInFlight =
+            Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /**
+     * Supersede all the pending requests. Must be called every time the query changes.
+     */
+    void onQueryChanged() {
+        mQueryChangedAt = SystemClock.elapsedRealtime();
+        mGeneration.incrementAndGet();
+        for (SuggestionProvider.Request request : mInFlight) {
+            request.cancel();
+        }
+    }
+
+    long getGeneration() {
+        return mGeneration.get();
+    }
+
+    /**
+     * @return when the latest generation started, in {@link SystemClock#elapsedRealtime()} time.
+     */
+    long getQueryChangedAt() {
+        return mQueryChangedAt;
+    }
+
+    boolean isLatest(long generation) {
+        return mGeneration.get() == generation;
+    }
+
+    /**
+     * The suggestions for a query, with the provider that made them.
+     */
+    static final class Answer {
+        @NonNull
+        final List<String> results;
+        // Null when the answers of both providers were combined
+        @Nullable
+        final SuggestionProvider provider;
+
+        Answer(@NonNull List<String> results, @Nullable SuggestionProvider provider) {
+            this.results = results;
+            this.provider = provider;
+        }
+    }
+
+    /**
+     * Wait for the user to stop typing, then fetch the suggestions for a query.
+     * NOTE: This is a blocking operation, do not call it on the UI thread.
+     *
+     * @param generation the generation the query belongs to.
+     * @param provider   the provider to fetch the results from.
+     * @param fallback   the provider to hedge slow requests to, or null.
+     * @param merge      whether to combine the answers of both providers.
+     * @param query      the normalized query.
+     * @return the suggestions, or null if the query got superseded or the requests failed.
+     */
+    @Nullable
+    Answer fetch(long generation, @NonNull SuggestionProvider provider,
+                       @Nullable SuggestionProvider fallback, boolean merge,
+                       @NonNull String query) {
+        try {
+            Thread.sleep(DEBOUNCE_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (!isLatest(generation)) {
+            return null;
+        }
+
+        Answer answer;
+        if (fallback == null || fallback == provider) {
+            List<String> results = fetch(generation, provider,
+                    new SuggestionProvider.Request(), query);
+            answer = results != null ? new Answer(results, provider) : null;
+        } else {
+            try {
+                answer = fetchHedged(generation, provider, fallback, merge, query);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return isLatest(generation) ? answer : null;
+    }
+
+    @Nullable
+    private List<String> fetch(long generation, @NonNull SuggestionProvider provider,
+                               @NonNull SuggestionProvider.Request request,
+                               @NonNull String query) {
+        mInFlight.add(request);
+        try {
+            // The query may have changed before the request was visible to onQueryChanged()
+            if (!isLatest(generation)) {
+                return null;
+            }
+            return provider.fetchResults(query, request);
+        } finally {
+            mInFlight.remove(request);
+        }
+    }
+
+    @Nullable
+    private Answer fetchHedged(long generation, @NonNull SuggestionProvider provider,
+                               @NonNull SuggestionProvider fallback, boolean merge,
+                               @NonNull String query) throws InterruptedException {
+        CompletionService<List<String>> service = new ExecutorCompletionService<>(sExecutor);
+        SuggestionProvider.Request primaryRequest = new SuggestionProvider.Request();
+        long primaryStart = SystemClock.elapsedRealtime();
+        Future<List<String>> primary = service.submit(
+                () -> fetch(generation, provider, primaryRequest, query));
+
+        Future<List<String>> first = service.poll(
+                provider.getLatency().getHedgeBudget(), TimeUnit.MILLISECONDS);
+        List<String> primaryResults = first != null ? getQuietly(first) : null;
+        if (primaryResults != null) {
+            return new Answer(primaryResults, provider);
+        }
+        if (!isLatest(generation)) {
+            return null;
+        }
+
+        // The primary provider is slow or failed, ask the fallback one too
+        SuggestionProvider.Request secondaryRequest = new SuggestionProvider.Request();
+        long secondaryStart = SystemClock.elapsedRealtime();
+        Future<List<String>> secondary = service.submit(
+                () -> fetch(generation, fallback, secondaryRequest, query));
+        int pending = first == null ? 2 : 1;
+        List<String> secondaryResults = null;
+        try {
+            while (pending > 0) {
+                Future<List<String>> done = merge && (primaryResults != null
+                        || secondaryResults != null)
+                        // Give the other provider a chance to complete the answer, not forever
+                        ? service.poll(fallback.getLatency().getHedgeBudget(),
+                                TimeUnit.MILLISECONDS)
+                        : service.take();
+                if (done == null) {
+                    break;
+                }
+                pending--;
+                if (done == primary) {
+                    primaryResults = getQuietly(done);
+                } else {
+                    secondaryResults = getQuietly(done);
+                }
+                if (!merge && (primaryResults != null || secondaryResults != null)) {
+                    break;
+                }
+            }
+        } finally {
+            // Whichever provider is still working lost the race
+            long now = SystemClock.elapsedRealtime();
+            if (!primary.isDone()) {
+                primaryRequest.cancel();
+                provider.getLatency().recordCancelled(now - primaryStart);
+            }
+            if (!secondary.isDone()) {
+                secondaryRequest.cancel();
+                fallback.getLatency().recordCancelled(now - secondaryStart);
+            }
+        }
+
+        if (primaryResults == null) {
+            return secondaryResults != null ? new Answer(secondaryResults, fallback) : null;
+        } else if (secondaryResults == null) {
+            return new Answer(primaryResults, provider);
+        }
+        return new Answer(interleave(primaryResults, secondaryResults), null);
+    }
+
+    @Nullable
+    private static List<String> getQuietly(@NonNull Future<List<String>> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException | InterruptedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Combine the answers of two providers, alternating between them and
+     * dropping the suggestions both of them made.
+     */
+    @NonNull
+    private static List<String> interleave(@NonNull List<String> first,
+                                           @NonNull List<String> second) {
+        List<String> merged = new ArrayList<>(first.size() + second.size());
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size() && seen.add(first.get(i).toLowerCase(Locale.getDefault()))) {
+                merged.add(first.get(i));
+            }
+            if (i < second.size() && seen.add(second.get(i).toLowerCase(Locale.getDefault()))) {
+                merged.add(second.get(i));
+            }
+        }
+        return merged;
+    }
+}
@@ -17,16 +17,16 @@
 package org.lineageos.jelly.suggestions;
 
 import android.content.Context;
-import android.graphics.Typeface;
-import android.text.SpannableStringBuilder;
-import android.text.Spanned;
-import android.text.style.StyleSpan;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.Filter;
 import android.widget.Filterable;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import org.lineageos.jelly.R;
@@ -35,18 +35,23 @@ import org.lineageos.jelly.utils.PrefsUtils.SuggestionProviderType;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class SuggestionsAdapter extends BaseAdapter implements Filterable {
-    private final ArrayList<String> mItems = new ArrayList<>();
+    private static final ExecutorService sRefreshExecutor = Executors.newSingleThreadExecutor();
+
+    private final ArrayList<SuggestionItem> mItems = new ArrayList<>();
     private final Context mContext;
+    private final boolean mIncognito;
     private final LayoutInflater mInflator;
     private final ItemFilter mFilter;
-    private String mQueryText;
+    private final SuggestionScheduler mScheduler = new SuggestionScheduler();
 
-    public SuggestionsAdapter(Context context) {
+    public SuggestionsAdapter(Context context, boolean incognito) {
         super();
         mContext = context;
+        mIncognito = incognito;
         mInflator = LayoutInflater.from(mContext);
         mFilter = new ItemFilter();
     }
@@ -69,28 +74,31 @@ public class SuggestionsAdapter extends BaseAdapter implements Filterable {
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         View view = convertView;
+        ViewHolder holder;
         if (view == null) {
             view = mInflator.inflate(R.layout.item_suggestion, parent, false);
+            holder = new ViewHolder(view);
+            view.setTag(holder);
+        } else {
+            holder = (ViewHolder) view.getTag();
         }
 
-        TextView title = view.findViewById(R.id.title);
-        String suggestion = mItems.get(position);
-
-        if (mQueryText != null) {
-            String query = mQueryText;
-            SpannableStringBuilder spannable = new SpannableStringBuilder(suggestion);
-            String lcSuggestion = suggestion.toLowerCase(Locale.getDefault());
-            int queryTextPos = lcSuggestion.indexOf(query);
-            while (queryTextPos >= 0) {
-                spannable.setSpan(new StyleSpan(Typeface.BOLD),
-                        queryTextPos, queryTextPos + query.length(),
-                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                queryTextPos = lcSuggestion.indexOf(query, queryTextPos + query.length());
+        SuggestionItem item = mItems.get(position);
+        if (item.type != holder.type) {
+            holder.type = item.type;
+            switch (item.type) {
+                case HISTORY:
+                    holder.icon.setImageResource(R.drawable.ic_history);
+                    break;
+                case FAVORITE:
+                    holder.icon.setImageResource(R.drawable.ic_favorite);
+                    break;
+                default:
+                    holder.icon.setImageResource(R.drawable.ic_search);
+                    break;
             }
-            title.setText(spannable);
-        } else {
-            title.setText(suggestion);
         }
+        holder.title.setText(item.display);
         return view;
     }
 
@@ -99,7 +107,31 @@ public class SuggestionsAdapter extends BaseAdapter implements Filterable {
         return mFilter;
     }
 
+    /**
+     * Abort the suggestion requests made for the previous query.
+     * Must be called on every keystroke, before filtering.
+     */
+    public void onQueryChanged() {
+        mScheduler.onQueryChanged();
+    }
+
+    /**
+     * Forget the suggestions kept for the queries typed so far, in memory
+     * and on disk. Called when the history is cleared.
+     */
+    public static void clearCache(Context context) {
+        Context appContext = context.getApplicationContext();
+        sRefreshExecutor.execute(() -> SuggestionCache.getInstance(appContext).clear());
+    }
+
     private class ItemFilter extends Filter {
+        private final Object mStale = new Object();
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+        private final SuggestionMetrics mMetrics = SuggestionMetrics.getInstance();
+        private volatile int mPublishedCount;
+        // Only accessed on the UI thread
+        private long mMeasuredGeneration = -1;
+
         @Override
         protected FilterResults performFiltering(CharSequence constraint) {
             FilterResults results = new FilterResults();
@@ -107,45 +139,162 @@ public class SuggestionsAdapter extends BaseAdapter implements Filterable {
                 return results;
             }
 
-            SuggestionProvider provider = getProvider();
-            String query = constraint.toString().toLowerCase(Locale.getDefault()).trim();
+            long generation = mScheduler.getGeneration();
+            SuggestionProviderType type = PrefsUtils.getSuggestionProvider(mContext);
+            SuggestionProvider provider = SuggestionProviders.get(type);
+            SuggestionProviderType fallbackType =
+                    PrefsUtils.getSuggestionFallbackProvider(mContext);
+            SuggestionProvider fallback = SuggestionProviders.get(fallbackType);
+            String query = SuggestionCache.normalize(constraint.toString());
+            String[] tokens = query.split(" ");
+            List<SuggestionItem> local =
+                    LocalSuggestionSource.getInstance(mContext).lookup(query);
+            for (SuggestionItem item : local) {
+                item.highlight(tokens);
+            }
 
+            List<String> items = null;
             if (provider != null) {
-                List<String> items = provider.fetchResults(query);
-                results.count = items.size();
-                results.values = items;
+                // Nothing typed in incognito is kept, the shared cache isn't even read
+                SuggestionCache cache = mIncognito ? null : SuggestionCache.getInstance(mContext);
+                String language = provider.getLanguage();
+                items = cache != null ? cache.get(type, language, query) : null;
+                if (items != null) {
+                    mMetrics.increment(provider.getName(), SuggestionMetrics.Counter.CACHE_HITS);
+                } else {
+                    items = cache != null ? cache.getFromPrefix(type, language, query) : null;
+                    if (items != null) {
+                        mMetrics.increment(provider.getName(),
+                                SuggestionMetrics.Counter.PREFIX_HITS);
+                        refreshInBackground(generation, provider, type, query, items);
+                    } else {
+                        mMetrics.increment(provider.getName(),
+                                SuggestionMetrics.Counter.CACHE_MISSES);
+                        // Show the local matches while waiting for the network
+                        publishLocal(generation, constraint, local);
+                        SuggestionScheduler.Answer answer = mScheduler.fetch(generation,
+                                provider, fallback, PrefsUtils.getSuggestionMerge(mContext),
+                                query);
+                        if (!mScheduler.isLatest(generation)) {
+                            mMetrics.increment(provider.getName(),
+                                    SuggestionMetrics.Counter.STALE_DROPS);
+                            // Keep showing the current items, the newer query will replace them
+                            results.count = mPublishedCount;
+                            results.values = mStale;
+                            return results;
+                        }
+                        items = answer != null ? answer.results : null;
+                        // Each provider only gets its own answers cached, a combined
+                        // one isn't what either of them would return
+                        if (answer != null && answer.provider != null && cache != null) {
+                            SuggestionProviderType answerType =
+                                    answer.provider == provider ? type : fallbackType;
+                            cache.put(answerType, answer.provider.getLanguage(), query,
+                                    answer.results.size() > SuggestionProvider.MAX_RESULTS
+                                            ? answer.results.subList(0,
+                                                    SuggestionProvider.MAX_RESULTS)
+                                            : answer.results);
+                        }
+                    }
+                }
             }
 
+            // When offline or without a provider, the local matches are all we have
+            List<SuggestionItem> merged = SuggestionItem.merge(local, items);
+            for (SuggestionItem item : merged) {
+                if (item.type == SuggestionItem.Type.SEARCH) {
+                    item.highlight(tokens);
+                }
+            }
+            results.count = merged.size();
+            results.values = merged;
             return results;
         }
 
+        private void publishLocal(long generation, CharSequence constraint,
+                                  List<SuggestionItem> local) {
+            if (local.isEmpty()) {
+                return;
+            }
+            FilterResults results = new FilterResults();
+            results.count = local.size();
+            results.values = local;
+            mHandler.post(() -> {
+                if (mScheduler.isLatest(generation)) {
+                    publishResults(constraint, results);
+                }
+            });
+        }
+
+        /**
+         * Fetch the real results for a query that was answered from the cache of
+         * one of its prefixes, and filter again if they differ from what's shown.
+         */
+        private void refreshInBackground(long generation, SuggestionProvider provider,
+                                         SuggestionProviderType type, String query,
+                                         List<String> shown) {
+            sRefreshExecutor.execute(() -> {
+                if (!mScheduler.isLatest(generation)) {
+                    return;
+                }
+                List<String> items = provider.fetchResults(query);
+                if (items == null) {
+                    return;
+                }
+                SuggestionCache.getInstance(mContext).put(type, provider.getLanguage(), query, items);
+                if (!items.equals(shown)) {
+                    mHandler.post(() -> {
+                        if (mScheduler.isLatest(generation)) {
+                            filter(query);
+                        }
+                    });
+                }
+            });
+        }
+
         @Override
         protected void publishResults(CharSequence constraint, FilterResults results) {
+            if (results.values == mStale) {
+                return;
+            }
             mItems.clear();
             if (results.values != null) {
-                List<String> items = (List<String>) results.values;
+                List<SuggestionItem> items = (List<SuggestionItem>) results.values;
                 mItems.addAll(items);
-                mQueryText = constraint != null
-                        ? constraint.toString().toLowerCase(Locale.getDefault()).trim() : null;
             }
+            mPublishedCount = mItems.size();
 
             notifyDataSetChanged();
+            recordLatency();
         }
 
-        private SuggestionProvider getProvider() {
-            switch (PrefsUtils.getSuggestionProvider(mContext)) {
-                case BAIDU:
-                    return new BaiduSuggestionProvider();
-                case BING:
-                    return new BingSuggestionProvider();
-                case DUCK:
-                    return new DuckSuggestionProvider();
-                case GOOGLE:
-                    return new GoogleSuggestionProvider();
-                case YAHOO:
-                    return new YahooSuggestionProvider();
+        /**
+         * Record how long the first update of the dropdown took after a keystroke.
+         */
+        private void recordLatency() {
+            long generation = mScheduler.getGeneration();
+            if (generation == mMeasuredGeneration || mScheduler.getQueryChangedAt() == 0) {
+                return;
             }
-            return null;
+            mMeasuredGeneration = generation;
+            SuggestionProvider provider = SuggestionProviders.get(
+                    PrefsUtils.getSuggestionProvider(mContext));
+            mMetrics.record(provider != null ? provider.getName() : "Local",
+                    SuggestionMetrics.Timing.END_TO_END,
+                    SystemClock.elapsedRealtime() - mScheduler.getQueryChangedAt());
+        }
+    }
+
+    private static class ViewHolder {
+        final ImageView icon;
+        final TextView title;
+        SuggestionItem.Type type;
+
+        ViewHolder(View view) {
+            icon = view.findViewById(R.id.suggestionIcon);
+            title = view.findViewById(R.id.title);
+            // Matches the icon set in the layout
+            type = SuggestionItem.Type.SEARCH;
         }
     }
 }
@@ -25,6 +25,8 @@ import android.util.AttributeSet;
 
 import androidx.appcompat.widget.AppCompatAutoCompleteTextView;
 
+import org.lineageos.jelly.suggestions.SuggestionsAdapter;
+
 public class AutoCompleteTextViewExt extends AppCompatAutoCompleteTextView {
     private OnFocusChangeListener mFocusChangeListener;
     private int mPositionX;
@@ -69,6 +71,14 @@ public class AutoCompleteTextViewExt extends AppCompatAutoCompleteTextView {
         super.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
     }
 
+    @Override
+    protected void performFiltering(CharSequence text, int keyCode) {
+        if (getAdapter() instanceof SuggestionsAdapter) {
+            ((SuggestionsAdapter) getAdapter()).onQueryChanged();
+        }
+        super.performFiltering(text, keyCode);
+    }
+
     @Override
     protected void onScrollChanged(int x, int y, int oldX, int oldY) {
         super.onScrollChanged(x, y, oldX, oldY);
@@ -28,6 +28,7 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import org.lineageos.jelly.R;
+import org.lineageos.jelly.suggestions.ConnectionPrewarmer;
 
 import java.text.DateFormat;
 import java.util.Date;
@@ -35,15 +36,17 @@ import java.util.Date;
 public class UrlBarController implements OnFocusChangeListener {
     private EditText mEditor;
     private ImageView mSecureIcon;
+    private boolean mIncognito;
 
     private String mUrl;
     private String mTitle;
     private boolean mLoading;
     private boolean mUrlBarHasFocus;
 
-    public UrlBarController(EditText editor, ImageView secureIcon) {
+    public UrlBarController(EditText editor, ImageView secureIcon, boolean incognito) {
         mEditor = editor;
         mSecureIcon = secureIcon;
+        mIncognito = incognito;
         mEditor.setOnFocusChangeListener(this);
         mEditor.setSelectAllOnFocus(true);
     }
@@ -78,6 +81,10 @@ public class UrlBarController implements OnFocusChangeListener {
         mUrlBarHasFocus = hasFocus;
         updateUrlBarText();
         updateSecureIconVisibility();
+        if (hasFocus && !mIncognito) {
+            // The user is about to type, get the connections ready
+            ConnectionPrewarmer.getInstance(view.getContext()).prewarm();
+        }
     }
 
     private void updateSecureIconVisibility() {
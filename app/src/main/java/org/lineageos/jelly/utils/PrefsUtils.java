@@ -31,6 +31,11 @@ public final class PrefsUtils {
     private static final String KEY_COOKIE = "key_cookie";
     private static final String KEY_DO_NOT_TRACK = "key_do_not_track";
     private static final String KEY_SUGGESTION_PROVIDER = "key_suggestion_provider";
+    private static final String KEY_SUGGESTION_FALLBACK_PROVIDER =
+            "key_suggestion_fallback_provider";
+    private static final String KEY_SUGGESTION_MERGE = "key_suggestion_merge";
+    private static final String KEY_HISTORY_MAX_AGE = "key_history_max_age";
+    private static final String KEY_HISTORY_MAX_ENTRIES = "key_history_max_entries";
 
     private PrefsUtils() {
     }
@@ -87,6 +92,48 @@ public final class PrefsUtils {
         }
     }
 
+    public static SuggestionProviderType getSuggestionFallbackProvider(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        try {
+            String value = prefs.getString(KEY_SUGGESTION_FALLBACK_PROVIDER,
+                    SuggestionProviderType.NONE.name());
+            return SuggestionProviderType.valueOf(value);
+        } catch (IllegalArgumentException ignored) {
+            return SuggestionProviderType.NONE;
+        }
+    }
+
+    public static boolean getSuggestionMerge(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(KEY_SUGGESTION_MERGE, false);
+    }
+
+    /**
+     * @return the number of days history entries are kept for, 0 for no limit.
+     */
+    public static int getHistoryMaxAge(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return parseInt(prefs.getString(KEY_HISTORY_MAX_AGE,
+                context.getString(R.string.default_history_max_age)));
+    }
+
+    /**
+     * @return the maximum number of history entries, 0 for no limit.
+     */
+    public static int getHistoryMaxEntries(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return parseInt(prefs.getString(KEY_HISTORY_MAX_ENTRIES,
+                context.getString(R.string.default_history_max_entries)));
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ignored) {
+            return 0;
+        }
+    }
+
     public static void setHomePage(Context context, String value) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         prefs.edit().putString(KEY_HOME_PAGE, value).apply();
@@ -40,6 +40,8 @@ import androidx.preference.PreferenceManager;
 
 import org.lineageos.jelly.R;
 
+import java.util.concurrent.TimeUnit;
+
 public final class UiUtils {
 
     private UiUtils() {
@@ -77,15 +79,26 @@ public final class UiUtils {
         return Bitmap.createScaledBitmap(out, 192, 192, true);
     }
 
+    /**
+     * Age limits of the buckets returned by {@link #getPositionInTime(long)}:
+     * last hour, today, this week and this month. Anything older falls in
+     * a last bucket.
+     */
+    public static final long[] TIME_BUCKETS = new long[]{
+            TimeUnit.HOURS.toMillis(1),
+            TimeUnit.DAYS.toMillis(1),
+            TimeUnit.DAYS.toMillis(7),
+            TimeUnit.DAYS.toMillis(30),
+    };
+
     public static int getPositionInTime(long timeMilliSec) {
         long diff = System.currentTimeMillis() - timeMilliSec;
 
-        long hour = 1000 * 60 * 60;
-        long day = hour * 24;
-        long week = day * 7;
-        long month = day * 30;
-
-        return hour > diff ? 0 : day > diff ? 1 : week > diff ? 2 : month > diff ? 3 : 4;
+        int position = 0;
+        while (position < TIME_BUCKETS.length && TIME_BUCKETS[position] <= diff) {
+            position++;
+        }
+        return position;
     }
 
     public static float dpToPx(Resources res, float dp) {
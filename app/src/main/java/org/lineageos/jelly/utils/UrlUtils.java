@@ -76,5 +76,19 @@ public final class UrlUtils {
         return URLUtil.composeSearchUrl(query, templateUri, "{searchTerms}");
     }
 
+    /**
+     * Extracts what follows the scheme of an url, up to the path, to show in
+     * place of a missing page title.
+     */
+    public static String getDisplayHost(String url) {
+        int start = url.indexOf("//");
+        if (start < 0) {
+            return url;
+        }
+        start += 2;
+        int end = url.indexOf('/', start);
+        return end < 0 ? url.substring(start) : url.substring(start, end);
+    }
+
 
 }
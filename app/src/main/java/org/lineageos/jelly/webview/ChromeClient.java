@@ -40,7 +40,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.lineageos.jelly.R;
-import org.lineageos.jelly.history.HistoryProvider;
+import org.lineageos.jelly.history.HistoryRecorder;
 import org.lineageos.jelly.ui.UrlBarController;
 import org.lineageos.jelly.utils.TabUtils;
 
@@ -73,7 +73,7 @@ class ChromeClient extends WebChromeClient {
         String it = view.getUrl();
         if (it != null) {
             if (!mIncognito) {
-                HistoryProvider.addOrUpdateItem(mActivity.getContentResolver(), title, it);
+                HistoryRecorder.getInstance(mActivity).record(it, title);
             }
         }
     }
@@ -45,6 +45,7 @@ import androidx.webkit.WebViewFeature;
 import com.google.android.material.snackbar.Snackbar;
 
 import org.lineageos.jelly.R;
+import org.lineageos.jelly.history.HistoryRecorder;
 import org.lineageos.jelly.ui.UrlBarController;
 import org.lineageos.jelly.utils.IntentUtils;
 import org.lineageos.jelly.utils.UrlUtils;
@@ -75,6 +76,14 @@ class WebClient extends WebViewClient {
         mUrlBarController.onPageLoadFinished(view.getContext(), view.getCertificate());
     }
 
+    @Override
+    public void doUpdateVisitedHistory(WebView view, String url, boolean isReload) {
+        super.doUpdateVisitedHistory(view, url, isReload);
+        if (!isReload && !((WebViewExt) view).isIncognito()) {
+            HistoryRecorder.getInstance(view.getContext()).recordVisit(url);
+        }
+    }
+
     @Override
     public boolean shouldOverrideUrlLoading(WebView view, String url) {
         WebViewExt webViewExt = (WebViewExt) view;
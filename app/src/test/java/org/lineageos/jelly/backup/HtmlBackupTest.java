@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.backup;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class HtmlBackupTest {
+    private static final String HEADER = "<!DOCTYPE NETSCAPE-Bookmark-file-1>\n" +
+            "<META HTTP-EQUIV=\"Content-Type\" CONTENT=\"text/html; charset=UTF-8\">\n" +
+            "<TITLE>Bookmarks</TITLE>\n<H1>Bookmarks</H1>\n";
+
+    @Test
+    public void linksOutsideTheHistoryAreFavorites() throws IOException {
+        RecordingBatch batch = read(HEADER + "<DL><p>\n" +
+                "    <DT><A HREF=\"https://lineageos.org/\" ADD_DATE=\"1600000000\">" +
+                "LineageOS</A>\n" +
+                "</DL><p>\n");
+
+        assertEquals(Collections.singletonList("LineageOS https://lineageos.org/"),
+                batch.favorites);
+        assertEquals(Collections.emptyList(), batch.history);
+    }
+
+    @Test
+    public void historyFolderLinksAreHistory() throws IOException {
+        RecordingBatch batch = read(HEADER + "<DL><p>\n" +
+                "    <DT><A HREF=\"https://a.org/\">A</A>\n" +
+                "    <DT><H3 JELLY_HISTORY=\"true\">History</H3>\n" +
+                "    <DL><p>\n" +
+                "        <DT><A HREF=\"https://b.org/\" ADD_DATE=\"1600000000\">B</A>\n" +
+                "    </DL><p>\n" +
+                "    <DT><A HREF=\"https://c.org/\">C</A>\n" +
+                "</DL><p>\n");
+
+        assertEquals(Arrays.asList("A https://a.org/", "C https://c.org/"), batch.favorites);
+        // The date is in seconds
+        assertEquals(Collections.singletonList("B https://b.org/ 1600000000000"),
+                batch.history);
+    }
+
+    @Test
+    public void otherFoldersAreFlattened() throws IOException {
+        RecordingBatch batch = read(HEADER + "<DL><p>\n" +
+                "    <DT><H3>Folder</H3>\n" +
+                "    <DL><p>\n" +
+                "        <DT><H3>Subfolder</H3>\n" +
+                "        <DL><p>\n" +
+                "            <DT><A HREF=\"https://a.org/\">A</A>\n" +
+                "        </DL><p>\n" +
+                "    </DL><p>\n" +
+                "</DL><p>\n");
+
+        assertEquals(Collections.singletonList("A https://a.org/"), batch.favorites);
+    }
+
+    @Test
+    public void foldersInsideTheHistoryAreHistory() throws IOException {
+        RecordingBatch batch = read(HEADER + "<DL><p>\n" +
+                "    <DT><H3 JELLY_HISTORY>History</H3>\n" +
+                "    <DL><p>\n" +
+                "        <DT><H3>Folder</H3>\n" +
+                "        <DL><p>\n" +
+                "            <DT><A HREF=\"https://a.org/\">A</A>\n" +
+                "        </DL><p>\n" +
+                "        <DT><A HREF=\"https://b.org/\">B</A>\n" +
+                "    </DL><p>\n" +
+                "</DL><p>\n");
+
+        assertEquals(Arrays.asList("A https://a.org/ 0", "B https://b.org/ 0"),
+                batch.history);
+        assertEquals(Collections.emptyList(), batch.favorites);
+    }
+
+    @Test
+    public void characterReferencesAreDecoded() throws IOException {
+        RecordingBatch batch = read("<DL><p>\n" +
+                "<DT><A HREF=\"https://a.org/?a=1&amp;b=2\">" +
+                "Tom &amp; Jerry&#39;s &quot;&#x41;&lt;&gt;&quot;</A>\n" +
+                "</DL><p>\n");
+
+        assertEquals(Collections.singletonList("Tom & Jerry's \"A<>\" https://a.org/?a=1&b=2"),
+                batch.favorites);
+    }
+
+    @Test
+    public void unknownReferencesAreKept() throws IOException {
+        RecordingBatch batch = read("<DL><DT><A HREF='https://a.org/'>" +
+                "a &bogus; b & c &#xzz;</A></DL>");
+
+        assertEquals(Collections.singletonList("a &bogus; b & c &#xzz; https://a.org/"),
+                batch.favorites);
+    }
+
+    @Test
+    public void attributesAreFoundInAnyCaseAndQuoting() throws IOException {
+        RecordingBatch batch = read("<dl><dt><a add_date=1600000000 " +
+                "icon=\"data:image/png;base64,AAA=\" href='https://a.org/'>A</a></dl>");
+
+        assertEquals(Collections.singletonList("A https://a.org/"), batch.favorites);
+    }
+
+    @Test
+    public void linksWithoutAddressAreSkipped() throws IOException {
+        RecordingBatch batch = read("<DL><DT><A NAME=\"top\">Top</A>" +
+                "<DT><A HREF=\"https://a.org/\">A</A></DL>");
+
+        assertEquals(Collections.singletonList("A https://a.org/"), batch.favorites);
+    }
+
+    private static RecordingBatch read(String html) throws IOException {
+        RecordingBatch batch = new RecordingBatch();
+        HtmlBackup.read(new StringReader(html), batch);
+        return batch;
+    }
+
+    private static class RecordingBatch extends ImportBatch {
+        final List<String> history = new ArrayList<>();
+        final List<String> favorites = new ArrayList<>();
+
+        RecordingBatch() {
+            super(null, 0);
+        }
+
+        @Override
+        void addHistory(String title, String url, long timestamp) {
+            history.add(title + " " + url + " " + timestamp);
+        }
+
+        @Override
+        void addFavorite(String title, String url, int color) {
+            favorites.add(title + " " + url);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.history;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryProviderTest {
+    private static final long NOW = 1600000000000L;
+    private static final long MONTH = TimeUnit.DAYS.toMillis(30);
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void visitWeighsOneWhenItHappens() {
+        assertEquals(1, HistoryProvider.getVisitWeight(
+                HistoryProvider.addVisit(0, 0, NOW), NOW), DELTA);
+    }
+
+    @Test
+    public void weightHalvesEveryMonth() {
+        double frecency = HistoryProvider.addVisit(0, 0, NOW - MONTH);
+
+        assertEquals(0.5, HistoryProvider.getVisitWeight(frecency, NOW), DELTA);
+        assertEquals(0.25, HistoryProvider.getVisitWeight(frecency, NOW + MONTH), DELTA);
+    }
+
+    @Test
+    public void visitWeightsAddUp() {
+        double frecency = HistoryProvider.addVisit(0, 0, NOW - MONTH);
+        frecency = HistoryProvider.addVisit(frecency, 1, NOW);
+
+        assertEquals(1.5, HistoryProvider.getVisitWeight(frecency, NOW), DELTA);
+    }
+
+    @Test
+    public void visitOrderDoesNotMatter() {
+        double forward = HistoryProvider.addVisit(
+                HistoryProvider.addVisit(0, 0, NOW - MONTH), 1, NOW);
+        double backward = HistoryProvider.addVisit(
+                HistoryProvider.addVisit(0, 0, NOW), 1, NOW - MONTH);
+
+        assertEquals(forward, backward, DELTA);
+    }
+
+    @Test
+    public void firstVisitIgnoresThePreviousScore() {
+        assertEquals(HistoryProvider.addVisit(0, 0, NOW),
+                HistoryProvider.addVisit(123, 0, NOW), 0);
+    }
+
+    @Test
+    public void manyVisitsDoNotOverflow() {
+        double frecency = 0;
+        for (int i = 0; i < 1000; i++) {
+            frecency = HistoryProvider.addVisit(frecency, i, NOW);
+        }
+
+        assertEquals(1000, HistoryProvider.getVisitWeight(frecency, NOW), 1e-6);
+    }
+
+    @Test
+    public void recentVisitOutranksManyOldOnes() {
+        double old = 0;
+        for (int i = 0; i < 10; i++) {
+            old = HistoryProvider.addVisit(old, i, NOW - 6 * MONTH);
+        }
+        double recent = HistoryProvider.addVisit(0, 0, NOW);
+
+        assertTrue(recent > old);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyTrackerTest {
+    @Test
+    public void startsWithTheInitialBudget() {
+        assertEquals(400, new LatencyTracker().getHedgeBudget());
+    }
+
+    @Test
+    public void firstSampleSetsTheEstimate() {
+        LatencyTracker tracker = new LatencyTracker();
+        tracker.record(200);
+
+        // Average plus twice a deviation of half the sample
+        assertEquals(400, tracker.getHedgeBudget());
+    }
+
+    @Test
+    public void steadyProviderConvergesToItsLatency() {
+        LatencyTracker tracker = new LatencyTracker();
+        for (int i = 0; i < 100; i++) {
+            tracker.record(300);
+        }
+
+        assertEquals(300, tracker.getHedgeBudget(), 1);
+    }
+
+    @Test
+    public void budgetIsClamped() {
+        LatencyTracker fast = new LatencyTracker();
+        LatencyTracker slow = new LatencyTracker();
+        for (int i = 0; i < 100; i++) {
+            fast.record(10);
+            slow.record(10000);
+        }
+
+        assertEquals(150, fast.getHedgeBudget());
+        assertEquals(1500, slow.getHedgeBudget());
+    }
+
+    @Test
+    public void jitterWidensTheBudget() {
+        LatencyTracker steady = new LatencyTracker();
+        LatencyTracker jittery = new LatencyTracker();
+        for (int i = 0; i < 100; i++) {
+            steady.record(300);
+            jittery.record(i % 2 == 0 ? 100 : 500);
+        }
+
+        assertTrue(jittery.getHedgeBudget() > steady.getHedgeBudget());
+    }
+
+    @Test
+    public void cancelledRequestsOnlyRaiseTheEstimate() {
+        LatencyTracker tracker = new LatencyTracker();
+        for (int i = 0; i < 100; i++) {
+            tracker.record(300);
+        }
+        long budget = tracker.getHedgeBudget();
+
+        // Cancelled early: it says nothing about how long it would have taken
+        tracker.recordCancelled(50);
+        assertEquals(budget, tracker.getHedgeBudget());
+
+        tracker.recordCancelled(1000);
+        assertTrue(tracker.getHedgeBudget() > budget);
+    }
+}
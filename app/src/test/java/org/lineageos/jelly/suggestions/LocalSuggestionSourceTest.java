@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocalSuggestionSourceTest {
+    private static final long NOW = 1600000000000L;
+
+    @Test
+    public void wholeUrlIsCompleted() {
+        LocalSuggestionSource.Index index = index(
+                entry("https://www.example.com/docs/page", "Documentation"));
+
+        assertEquals(urls("https://www.example.com/docs/page"),
+                urls(index.lookup("example.com/do", NOW)));
+        assertEquals(urls("https://www.example.com/docs/page"),
+                urls(index.lookup("example", NOW)));
+    }
+
+    @Test
+    public void titleWordsAreMatchedByPrefix() {
+        LocalSuggestionSource.Index index = index(
+                entry("https://lineageos.org/", "Release notes: LineageOS"));
+
+        assertEquals(1, index.lookup("notes", NOW).size());
+        assertEquals(1, index.lookup("rel", NOW).size());
+        assertEquals(1, index.lookup("lineageos", NOW).size());
+        // The middle of a word isn't the start of a key
+        assertTrue(index.lookup("otes", NOW).isEmpty());
+    }
+
+    @Test
+    public void everyWordMustMatch() {
+        LocalSuggestionSource.Index index = index(
+                entry("https://a.org/", "release notes"),
+                entry("https://b.org/", "release party"));
+
+        assertEquals(urls("https://a.org/"), urls(index.lookup("release not", NOW)));
+    }
+
+    @Test
+    public void urlPrefixRanksFirst() {
+        LocalSuggestionSource.Index index = index(
+                entry("https://other.org/", "news of the day"),
+                entry("https://news.example/", "Front page"));
+
+        assertEquals(urls("https://news.example/", "https://other.org/"),
+                urls(index.lookup("news", NOW)));
+    }
+
+    @Test
+    public void favoritesRankFirst() {
+        LocalSuggestionSource.Entry favorite = entry("https://b.org/news", "news");
+        favorite.favorite = true;
+        LocalSuggestionSource.Index index = index(
+                entry("https://a.org/news", "news"), favorite);
+
+        assertEquals(SuggestionItem.Type.FAVORITE, index.lookup("news", NOW).get(0).type);
+    }
+
+    @Test
+    public void resultsAreCapped() {
+        List<LocalSuggestionSource.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            entries.add(entry("https://site" + i + ".org/", "Site " + i));
+        }
+        LocalSuggestionSource.Index index = new LocalSuggestionSource.Index(entries);
+
+        assertEquals(3, index.lookup("site", NOW).size());
+    }
+
+    @Test
+    public void emptyQueryMatchesNothing() {
+        LocalSuggestionSource.Index index = index(entry("https://a.org/", "a"));
+
+        assertTrue(index.lookup("", NOW).isEmpty());
+    }
+
+    private static LocalSuggestionSource.Entry entry(String url, String title) {
+        return new LocalSuggestionSource.Entry(url, title, Double.NaN);
+    }
+
+    private static LocalSuggestionSource.Index index(LocalSuggestionSource.Entry... entries) {
+        return new LocalSuggestionSource.Index(Arrays.asList(entries));
+    }
+
+    private static List<String> urls(String... urls) {
+        return Arrays.asList(urls);
+    }
+
+    private static List<String> urls(List<SuggestionItem> items) {
+        List<String> urls = new ArrayList<>(items.size());
+        for (SuggestionItem item : items) {
+            urls.add(item.text);
+        }
+        return urls;
+    }
+}
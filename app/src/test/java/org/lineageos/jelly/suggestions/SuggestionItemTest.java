@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.jelly.suggestions;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SuggestionItemTest {
+    private static final float DELTA = 1e-6f;
+
+    @Test
+    public void remoteScoresSpanTheDocumentedRange() {
+        List<SuggestionItem> merged = SuggestionItem.merge(Collections.emptyList(),
+                Arrays.asList("a", "b", "c", "d", "e"));
+
+        assertEquals(5, merged.size());
+        assertEquals(1f, merged.get(0).score, DELTA);
+        assertEquals(0.9f, merged.get(1).score, DELTA);
+        assertEquals(0.6f, merged.get(4).score, DELTA);
+        for (int i = 0; i < merged.size(); i++) {
+            assertEquals("abcde".substring(i, i + 1), merged.get(i).text);
+            assertEquals(SuggestionItem.Type.SEARCH, merged.get(i).type);
+        }
+    }
+
+    @Test
+    public void moreRemoteResultsStayInRange() {
+        List<SuggestionItem> merged = SuggestionItem.merge(Collections.emptyList(),
+                Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j"));
+
+        assertEquals(0.6f, merged.get(merged.size() - 1).score, DELTA);
+    }
+
+    @Test
+    public void singleRemoteResultScoresOne() {
+        List<SuggestionItem> merged = SuggestionItem.merge(Collections.emptyList(),
+                Collections.singletonList("a"));
+
+        assertEquals(1f, merged.get(0).score, DELTA);
+    }
+
+    @Test
+    public void localItemsAreRankedWithRemoteOnes() {
+        SuggestionItem strong = new SuggestionItem("https://strong.org/",
+                SuggestionItem.Type.HISTORY, 1.5f);
+        SuggestionItem weak = new SuggestionItem("https://weak.org/",
+                SuggestionItem.Type.HISTORY, 0.75f);
+
+        List<SuggestionItem> merged = SuggestionItem.merge(Arrays.asList(weak, strong),
+                Arrays.asList("a", "b", "c", "d", "e"));
+
+        assertEquals(strong, merged.get(0));
+        // Between the remote items scoring 0.8 and 0.7
+        assertEquals(weak, merged.get(4));
+    }
+
+    @Test
+    public void duplicatesKeepTheBestRankedItem() {
+        SuggestionItem local = new SuggestionItem("Jelly", SuggestionItem.Type.FAVORITE, 2f);
+
+        List<SuggestionItem> merged = SuggestionItem.merge(Collections.singletonList(local),
+                Arrays.asList("jelly", "jam"));
+
+        assertEquals(2, merged.size());
+        assertEquals(local, merged.get(0));
+        assertEquals("jam", merged.get(1).text);
+    }
+
+    @Test
+    public void withoutRemoteResultsOnlyLocalOnesAreLeft() {
+        SuggestionItem local = new SuggestionItem("https://a.org/",
+                SuggestionItem.Type.HISTORY, 0.5f);
+
+        assertEquals(Collections.singletonList(local),
+                SuggestionItem.merge(Collections.singletonList(local), null));
+    }
+}